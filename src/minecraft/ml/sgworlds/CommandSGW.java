@@ -6,11 +6,16 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import ml.sgworlds.world.ChunkPregenerator;
 import ml.sgworlds.world.SGWorldData;
 import ml.sgworlds.world.SGWorldManager;
+import ml.sgworlds.world.TickTaskScheduler;
+import ml.sgworlds.world.WorldDataGenerator;
 import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.command.WrongUsageException;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.util.ChatMessageComponent;
 
 public class CommandSGW extends CommandBase {
@@ -92,13 +97,36 @@ public class CommandSGW extends CommandBase {
 				int cnt = parseInt(icommandsender, args.remove(0));
 				if (cnt > 50 || cnt < 1) throw new WrongUsageException("command.sgw.generate.error.minmax");
 					
+				// Carries on the catalog's streams after the worlds that already exist
+				long catalogSeed = WorldDataGenerator.getCatalogSeed();
+				int first = SGWorldManager.instance.worlds.size();
 				for (int i=0; i<cnt; i++) {
-					SGWorldManager.instance.registerSGWorld(SGWorldData.generateRandom());
+					SGWorldManager.instance.registerSGWorld(SGWorldData.generateRandom(catalogSeed, first + i));
 				}
 				icommandsender.sendChatToPlayer(ChatMessageComponent.createFromTranslationWithSubstitutions("command.sgw.generate.success", cnt));
 				
 			} else throw new WrongUsageException("command.sgw.generate.usage");
 			
+		} else if ("pregen".equals(cmd)) {
+			if (args.size() != 2) throw new WrongUsageException("command.sgw.pregen.usage");
+			SGWorldData sgwd = SGWorldManager.instance.getWorldData(args.get(0));
+			if (sgwd == null) throw new CommandException("command.sgw.error.noworld", args.get(0));
+
+			if ("stop".equals(args.get(1))) {
+				if (!ChunkPregenerator.stop(sgwd)) throw new CommandException("command.sgw.pregen.error.notrunning", sgwd.getDesignation());
+				icommandsender.sendChatToPlayer(ChatMessageComponent.createFromTranslationWithSubstitutions("command.sgw.pregen.stopped", sgwd.getDesignation()));
+
+			} else {
+				int radius = parseIntBounded(icommandsender, args.get(1), 1, 500);
+				if (sgwd.getDimensionId() == 0) throw new CommandException("command.sgw.pregen.error.notloaded", sgwd.getDesignation());
+				ChunkPregenerator.stop(sgwd);
+
+				String reportTo = icommandsender instanceof EntityPlayer ? icommandsender.getCommandSenderName() : null;
+				ChunkPregenerator pregen = new ChunkPregenerator(sgwd, radius, reportTo);
+				TickTaskScheduler.instance.schedule(pregen);
+				icommandsender.sendChatToPlayer(ChatMessageComponent.createFromTranslationWithSubstitutions("command.sgw.pregen.started", pregen.getTotalChunks(), sgwd.getDesignation()));
+			}
+
 //		} else if ("help".equals(cmd)) {
 //			if (args.size() == 1 && StatCollector.func_94522_b("command.sgw."+args.get(0)+".info")) {
 //				String topic = args.get(0);
@@ -12,8 +12,10 @@ import ml.sgworlds.api.world.feature.SGWFeature;
 import ml.sgworlds.api.world.feature.WorldFeature;
 import ml.sgworlds.api.world.feature.prefab.BaseWeatherController;
 import ml.sgworlds.network.ServerConnectionHandler;
+import ml.sgworlds.world.ChunkPregenerator;
 import ml.sgworlds.world.GenEventHandler;
 import ml.sgworlds.world.SGWorldManager;
+import ml.sgworlds.world.TickTaskScheduler;
 import ml.sgworlds.world.dimension.SGWorldProvider;
 import ml.sgworlds.world.feature.FeatureManager;
 import ml.sgworlds.world.feature.impl.BiomeControllerNative;
@@ -42,6 +44,7 @@ import ml.sgworlds.world.feature.impl.populate.PopulateWaterLakes;
 import ml.sgworlds.world.feature.impl.structure.PopulateStrongholds;
 import ml.sgworlds.world.feature.impl.structure.PopulateVillages;
 import ml.sgworlds.world.feature.impl.structure.StructureCartouche;
+import ml.sgworlds.world.gen.ChunkGenExecutor;
 import ml.sgworlds.world.gen.structure.ComponentCartouche;
 import ml.sgworlds.world.gen.structure.OverworldStructureGen;
 import ml.sgworlds.world.gen.structure.ScatteredStructureStart;
@@ -72,10 +75,14 @@ import cpw.mods.fml.common.event.FMLInterModComms.IMCEvent;
 import cpw.mods.fml.common.event.FMLPostInitializationEvent;
 import cpw.mods.fml.common.event.FMLPreInitializationEvent;
 import cpw.mods.fml.common.event.FMLServerAboutToStartEvent;
+import cpw.mods.fml.common.event.FMLServerStartedEvent;
 import cpw.mods.fml.common.event.FMLServerStartingEvent;
 import cpw.mods.fml.common.event.FMLServerStoppedEvent;
+import cpw.mods.fml.common.event.FMLServerStoppingEvent;
 import cpw.mods.fml.common.network.NetworkMod;
 import cpw.mods.fml.common.network.NetworkRegistry;
+import cpw.mods.fml.common.registry.TickRegistry;
+import cpw.mods.fml.relauncher.Side;
 
 @Mod(modid = "sgworlds", name = "Stargate Worlds", dependencies = "required-after:MLCore; required-after:StargateTech2")
 @NetworkMod(clientSideRequired = true, serverSideRequired = false)
@@ -115,6 +122,7 @@ public class SGWorlds {
 
 		MinecraftForge.EVENT_BUS.register(this);
 		MinecraftForge.EVENT_BUS.register(new EventListener());
+		TickRegistry.registerTickHandler(TickTaskScheduler.instance, Side.SERVER);
 	}
 
 	@EventHandler
@@ -165,12 +173,23 @@ public class SGWorlds {
 		SGWorldManager.instance.registerDimensions();
 	}
 
+	@EventHandler
+	public void serverStarted(FMLServerStartedEvent evt) {
+		ChunkPregenerator.resumeCheckpoints(SGWorldManager.instance);
+	}
+
+	@EventHandler
+	public void serverStopping(FMLServerStoppingEvent evt) {
+		TickTaskScheduler.instance.clear();
+	}
+
 	@EventHandler
 	public void serverStopped(FMLServerStoppedEvent evt) {
 		if (SGWorldManager.instance != null) {
 			SGWorldManager.instance.unregisterDimensions();
 		}
 		SGWorldManager.instance = null;
+		ChunkGenExecutor.shutdown();
 	}
 
 	@EventHandler
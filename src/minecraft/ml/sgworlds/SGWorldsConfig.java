@@ -13,9 +13,30 @@ public class SGWorldsConfig extends Config {
 
 	public @Prop int numberWorldsToGenerate = 100;
 	public @Prop int numberWorldsToGenerateRandom = 50;
+	public @Prop String catalogSeed = "";
 
 	public @Prop boolean preventOverworldNaquadahGen = true;
 
+	public @Prop boolean asyncChunkGeneration = true;
+	public @Prop int chunkGenThreads = 0;
+	public @Prop int chunkGenPrefetchRadius = 1;
+	/*
+	 * Noise columns kept per world. Cached columns are sampled one at a time, and their densities can differ in the last
+	 * bits from the batched sampling used at 0, so a world may generate a slightly different surface here and there.
+	 */
+	public @Prop int terrainNoiseCacheSize = 4096;
+	public @Prop int heightmapCacheSize = 1024;
+	public @Prop int biomeTileCacheSize = 128;
+	public @Prop int carverCacheSize = 2048;
+	public @Prop int pregenTickBudgetMs = 20;
+	public @Prop int worldLoadTickBudgetMs = 15;
+	/*
+	 * How long a dial into a world that isn't brought up yet works on it before returning. A dial that returns before
+	 * the gate is placed fails; the world keeps loading in the background and a later dial connects.
+	 */
+	public @Prop int worldLoadDialBudgetMs = 50;
+	public @Prop boolean packedWorldCatalog = true;
+
 	public @Prop int decorativeBlockId = 3100;
 	public @Prop int stargateWorldsItemId = 9477;
 	
@@ -0,0 +1,68 @@
+package ml.sgworlds.api.world;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockFluid;
+
+/**
+ * The surface heights of a generated chunk, per column.<br/>
+ * The top height is one above the highest non-air block, water included, like {@link net.minecraft.world.World#getHeightValue}
+ * on freshly generated terrain. The floor height is one above the highest block that is neither air nor a fluid, i.e. the ocean floor.
+ */
+public class ChunkHeightmap {
+
+	private final int[] top = new int[16*16];
+	private final int[] floor = new int[16*16];
+
+	/**
+	 * Records a block placed in the column. Heights only ever rise, so blocks can be passed in any order.
+	 * @param solid Whether the block is neither air nor a fluid.
+	 */
+	public void markBlock(int x, int y, int z, boolean solid) {
+		int col = (z & 15) << 4 | (x & 15);
+		if (y >= top[col]) top[col] = y+1;
+		if (solid && y >= floor[col]) floor[col] = y+1;
+	}
+
+	public int getTopHeight(int x, int z) {
+		return top[(z & 15) << 4 | (x & 15)];
+	}
+
+	public int getFloorHeight(int x, int z) {
+		return floor[(z & 15) << 4 | (x & 15)];
+	}
+
+	/**
+	 * Lowers the heights to match blocks that were removed or replaced since they were recorded, e.g. by carvers.
+	 * Blocks must not have been added above the recorded heights.
+	 * @param blockIds A chunk block array, indexed y<<8 | z<<4 | x.
+	 */
+	public void lowerTo(short[] blockIds) {
+		for (int col = 0; col < 256; col++) {
+			int y = top[col]-1;
+			while (y >= 0 && blockIds[y<<8 | col] == 0) y--;
+			top[col] = y+1;
+
+			y = Math.min(floor[col], top[col])-1;
+			while (y >= 0 && !isSolid(blockIds[y<<8 | col])) y--;
+			floor[col] = y+1;
+		}
+	}
+
+	/**
+	 * Builds the heightmap of a finished block array.
+	 * @param blockIds A chunk block array, indexed y<<8 | z<<4 | x.
+	 */
+	public static ChunkHeightmap fromBlocks(short[] blockIds) {
+		ChunkHeightmap heightmap = new ChunkHeightmap();
+		int height = blockIds.length >> 8;
+		for (int col = 0; col < 256; col++) {
+			heightmap.top[col] = heightmap.floor[col] = height;
+		}
+		heightmap.lowerTo(blockIds);
+		return heightmap;
+	}
+
+	public static boolean isSolid(int blockId) {
+		return blockId != 0 && !(Block.blocksList[blockId] instanceof BlockFluid);
+	}
+}
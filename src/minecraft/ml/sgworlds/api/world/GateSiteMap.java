@@ -0,0 +1,139 @@
+package ml.sgworlds.api.world;
+
+import java.util.Collection;
+
+import net.minecraft.world.biome.BiomeGenBase;
+
+/**
+ * A low resolution map of the biomes and terrain heights around a world's spawn, used to pick where its gate temple goes.<br/>
+ * Each cell holds one sample, taken from the middle of the cell. See {@link IScoredTempleGenerator}.
+ */
+public class GateSiteMap {
+
+	private final int originX, originZ;
+	private final int cellSize;
+	private final int size;
+
+	private final BiomeGenBase[] biomes;
+	private final int[] topHeights;
+	private final int[] floorHeights;
+
+	/**
+	 * @param originX The block x the first cell starts at.
+	 * @param size The number of cells along each side.
+	 */
+	public GateSiteMap(int originX, int originZ, int cellSize, int size) {
+		this.originX = originX;
+		this.originZ = originZ;
+		this.cellSize = cellSize;
+		this.size = size;
+		this.biomes = new BiomeGenBase[size*size];
+		this.topHeights = new int[size*size];
+		this.floorHeights = new int[size*size];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @return The block x the cell is sampled at.
+	 */
+	public int getBlockX(int cellX) {
+		return originX + cellX*cellSize + cellSize/2;
+	}
+
+	/**
+	 * @return The block z the cell is sampled at.
+	 */
+	public int getBlockZ(int cellZ) {
+		return originZ + cellZ*cellSize + cellSize/2;
+	}
+
+	public void setCell(int cellX, int cellZ, BiomeGenBase biome, int topHeight, int floorHeight) {
+		int i = cellZ*size + cellX;
+		biomes[i] = biome;
+		topHeights[i] = topHeight;
+		floorHeights[i] = floorHeight;
+	}
+
+	public BiomeGenBase getBiome(int cellX, int cellZ) {
+		return biomes[cellZ*size + cellX];
+	}
+
+	/**
+	 * @return One above the highest non-air block of the terrain, water included.
+	 */
+	public int getTopHeight(int cellX, int cellZ) {
+		return topHeights[cellZ*size + cellX];
+	}
+
+	/**
+	 * @return One above the highest block of the terrain that is neither air nor a fluid.
+	 */
+	public int getFloorHeight(int cellX, int cellZ) {
+		return floorHeights[cellZ*size + cellX];
+	}
+
+	public boolean isUnderwater(int cellX, int cellZ) {
+		return floorHeights[cellZ*size + cellX] < topHeights[cellZ*size + cellX];
+	}
+
+	/**
+	 * @return The fraction of the cells within radius (clipped to the map) whose biome is one of the given ones.
+	 */
+	public float getBiomeFit(int cellX, int cellZ, int radius, Collection<BiomeGenBase> validBiomes) {
+		int matches = 0, count = 0;
+		for (int cz = Math.max(0, cellZ-radius); cz <= Math.min(size-1, cellZ+radius); cz++) {
+			for (int cx = Math.max(0, cellX-radius); cx <= Math.min(size-1, cellX+radius); cx++) {
+				if (validBiomes.contains(biomes[cz*size + cx])) matches++;
+				count++;
+			}
+		}
+		return (float)matches / count;
+	}
+
+	/**
+	 * @return The fraction of the cells within radius (clipped to the map) that are above water.
+	 */
+	public float getLandFit(int cellX, int cellZ, int radius) {
+		int matches = 0, count = 0;
+		for (int cz = Math.max(0, cellZ-radius); cz <= Math.min(size-1, cellZ+radius); cz++) {
+			for (int cx = Math.max(0, cellX-radius); cx <= Math.min(size-1, cellX+radius); cx++) {
+				if (!isUnderwater(cx, cz)) matches++;
+				count++;
+			}
+		}
+		return (float)matches / count;
+	}
+
+	/**
+	 * @param floor Whether to use the floor heights rather than the top heights, e.g. for underwater sites.
+	 * @return 1 for perfectly flat ground within radius (clipped to the map), approaching 0 as the height range grows.
+	 */
+	public float getFlatness(int cellX, int cellZ, int radius, boolean floor) {
+		int[] heights = floor ? floorHeights : topHeights;
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int cz = Math.max(0, cellZ-radius); cz <= Math.min(size-1, cellZ+radius); cz++) {
+			for (int cx = Math.max(0, cellX-radius); cx <= Math.min(size-1, cellX+radius); cx++) {
+				int h = heights[cz*size + cx];
+				if (h < min) min = h;
+				if (h > max) max = h;
+			}
+		}
+		return 4.0F / (4.0F + max - min);
+	}
+
+	/**
+	 * A score for temples that just want dry, flat ground around their gate.
+	 * @return -1 for an underwater cell, otherwise the land fit times the flatness of the cells next to it.
+	 */
+	public float scoreFlatLand(int cellX, int cellZ) {
+		if (isUnderwater(cellX, cellZ)) return -1;
+		return getLandFit(cellX, cellZ, 1) * getFlatness(cellX, cellZ, 1, false);
+	}
+}
@@ -0,0 +1,25 @@
+package ml.sgworlds.api.world;
+
+import net.minecraft.world.ChunkPosition;
+import net.minecraft.world.World;
+
+/**
+ * A gate temple that can rate sites on a {@link GateSiteMap}.<br/>
+ * When a world is first dialed, all registered temples of this kind are scored in parallel against a map of the spawn region
+ * and the best site wins. Other temples are only tried, in the old way, if none of these find a site.
+ */
+public interface IScoredTempleGenerator extends IGateTempleGenerator {
+
+	/**
+	 * Called from worker threads, possibly for several temples at once, so this must only use the map.
+	 * @return How well a gate at the cell fits the temple, from 0 to 1, or a negative value if it can't go there.
+	 */
+	public float scoreSite(GateSiteMap map, int cellX, int cellZ);
+
+	/**
+	 * Called on the server thread with the chosen site.
+	 * @return The gate coordinates for a temple at the block column, or null if it can't be placed after all.
+	 */
+	public ChunkPosition getGateCoords(World world, int gateRotation, int x, int z);
+
+}
@@ -4,6 +4,9 @@ import java.util.List;
 
 import ml.sgworlds.api.world.feature.FeatureType;
 import ml.sgworlds.api.world.feature.WorldFeature;
+import ml.sgworlds.api.world.feature.types.IBiomeController;
+import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
+import ml.sgworlds.api.world.feature.types.IWeatherController;
 import ml.sgworlds.world.dimension.SGWorldProvider;
 
 public interface IWorldData {
@@ -18,6 +21,17 @@ public interface IWorldData {
 	 */
 	public WorldFeature getFeature(FeatureType type);
 
+	/**
+	 * Returns the features of the specified type without copying them. The array is shared and must not be modified.
+	 */
+	public WorldFeature[] getFeatureArray(FeatureType type);
+
+	public ITerrainGenerator getTerrainGenerator();
+
+	public IBiomeController getBiomeController();
+
+	public IWeatherController getWeatherController();
+
 	public abstract long getWorldSeed();
 
 	/**
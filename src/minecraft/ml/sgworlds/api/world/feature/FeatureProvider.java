@@ -1,10 +1,12 @@
 package ml.sgworlds.api.world.feature;
 
 import java.lang.reflect.Constructor;
-import java.util.ArrayList;
+import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ml.sgworlds.api.world.IWorldData;
 import net.minecraft.nbt.NBTTagCompound;
@@ -26,6 +28,17 @@ public class FeatureProvider {
 	protected int weight = 100;
 	public final boolean independent;
 	
+	/*
+	 * The three common constructor shapes are looked up once when the provider is created. Null if the feature class
+	 * doesn't have that constructor. The random and NBT ones are also null when a subclass overrides constructFeature,
+	 * so those providers are always asked through their override.
+	 */
+	private final Constructor<WorldFeature> baseConstructor;
+	private final Constructor<WorldFeature> randomConstructor;
+	private final Constructor<WorldFeature> nbtConstructor;
+	/** Constructors for other parameter lists, resolved on first use. */
+	private final Map<List<Class>, Constructor<WorldFeature>> extraConstructors = new ConcurrentHashMap<List<Class>, Constructor<WorldFeature>>();
+	
 	/**
 	 * @param identifier The provider-unique identifier used for saving and loading.
 	 * @param type The {@link FeatureType} of the feature.
@@ -40,6 +53,11 @@ public class FeatureProvider {
 		
 		this.weight = weight;
 		this.independent = independent;
+		
+		boolean overridden = overridesConstructFeature();
+		this.baseConstructor = findConstructor(getClass(), IWorldData.class);
+		this.randomConstructor = overridden ? null : findConstructor(getClass(), IWorldData.class, Random.class);
+		this.nbtConstructor = overridden ? null : findConstructor(getClass(), IWorldData.class, NBTTagCompound.class);
 	}
 	
 	public FeatureProvider(String identifier, FeatureType type, Class<? extends WorldFeature> cls) {
@@ -50,10 +68,25 @@ public class FeatureProvider {
 		this(identifier, type, null);
 	}
 	
+	private boolean overridesConstructFeature() {
+		try {
+			return getClass().getMethod("constructFeature", IWorldData.class, Object[].class).getDeclaringClass() != FeatureProvider.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	private Constructor<WorldFeature> findConstructor(Class... paramTypes) {
+		if (clazz == null) return null;
+		return ConstructorUtils.getMatchingAccessibleConstructor(clazz, paramTypes);
+	}
+	
 	/**
 	 * Checks if this provider can create a feature for the specified identifier.<br/>
 	 * This is intended for updating and converting old features.<br/><br/>
-	 * <b><i>Do not even think about using this dynamically!</i></b>
+	 * <b><i>Do not even think about using this dynamically!</i></b><br/>
+	 * Prefer {@link IFeatureManager#registerAlias(String, String)}; ids claimed here are only found after a direct and
+	 * alias lookup both miss.
 	 */
 	public boolean willLoadFeatureId(String ident) {
 		return identifier.equals(ident);
@@ -71,26 +104,41 @@ public class FeatureProvider {
 	 * Construct a new Feature of the associated type. Override if you need a constructor with additional parameters.
 	 */
 	public WorldFeature constructFeature(IWorldData worldData, Object...params) {
+		if (params.length == 0 && baseConstructor != null) {
+			return newInstance(baseConstructor, this, worldData);
+		}
+		
+		Object[] fParams = new Object[params.length + 2];
+		fParams[0] = this;
+		fParams[1] = worldData;
+		System.arraycopy(params, 0, fParams, 2, params.length);
+		
+		Class[] paramTypes = new Class[fParams.length];
+		for (int i=0; i<fParams.length; i++) {
+			paramTypes[i] = fParams[i] == null ? null : fParams[i].getClass();
+		}
+		
+		List<Class> key = Arrays.asList(paramTypes);
+		Constructor<WorldFeature> constructor = extraConstructors.get(key);
+		if (constructor == null && clazz != null) {
+			constructor = ConstructorUtils.getMatchingAccessibleConstructor(clazz, paramTypes);
+			if (constructor != null) extraConstructors.put(key, constructor);
+		}
+		
+		if (constructor == null) {
+			throw new RuntimeException(new NoSuchMethodException(
+					String.format("Could not find an appropriate constructor for Feature \"%s\"!", clazz == null ? null : clazz.getName())));
+		}
+		return newInstance(constructor, fParams);
+	}
+	
+	private static WorldFeature newInstance(Constructor<WorldFeature> constructor, Object... params) {
 		try {
-			List<Object> fParams = new ArrayList<Object>(Arrays.asList(params));
-			fParams.add(0, this);
-			fParams.add(1, worldData);
-			
-			List<Class> paramTypes = new ArrayList<Class>();
-			for (Object prm : fParams) {
-				if (prm == null) paramTypes.add(null);
-				else paramTypes.add(prm.getClass());
-			}
-			
-			Constructor<WorldFeature> constructor = ConstructorUtils.getMatchingAccessibleConstructor(clazz, paramTypes.toArray(new Class[0]));
-			
-			if (constructor != null) {
-				return constructor.newInstance(fParams.toArray());
-			} else {
-				throw new NoSuchMethodException(
-						String.format("Could not find an appropriate constructor for Feature \"%s\"!", clazz.getName()));
-			}
-			
+			return constructor.newInstance(params);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -98,13 +146,15 @@ public class FeatureProvider {
 	
 	/**
 	 * Should generate a random instance of the feature.<br/>
-	 * Defaults to {@link #constructFeature(IWorldData, Object...)}.<br/>
+	 * Defaults to the (provider, worldData, Random) constructor. Without one, {@link #constructFeature(IWorldData, Object...)}
+	 * is asked with the Random, and then without it.<br/>
 	 * See {@link WorldFeature}.
 	 * @param worldData
 	 * @param rnd
 	 * @return
 	 */
 	public WorldFeature generateRandom(IWorldData worldData, Random rnd) {
+		if (randomConstructor != null) return newInstance(randomConstructor, this, worldData, rnd);
 		try {
 			return constructFeature(worldData, rnd);
 		} catch (Exception e) {}
@@ -113,13 +163,15 @@ public class FeatureProvider {
 	
 	/**
 	 * Passes an {@link NBTTagCompound} to load a feature from.<br/>
-	 * Defaults to {@link #constructFeature(IWorldData, Object...)}.<br/>
+	 * Defaults to the (provider, worldData, NBTTagCompound) constructor. Without one, {@link #constructFeature(IWorldData, Object...)}
+	 * is asked with the tag, and then without it.<br/>
 	 * See {@link WorldFeature}.
 	 * @param worldData
 	 * @param nbtData
 	 * @return
 	 */
 	public WorldFeature loadFromNBT(IWorldData worldData, NBTTagCompound nbtData) {
+		if (nbtConstructor != null) return newInstance(nbtConstructor, this, worldData, nbtData);
 		try {
 			return constructFeature(worldData, nbtData);
 		} catch (Exception e) {}
@@ -30,6 +30,12 @@ public interface IFeatureManager {
 	
 	public FeatureProvider getFeatureProvider(String identifier);
 	
+	/**
+	 * Loads features saved with legacyIdentifier through the provider registered as identifier.
+	 * Use this when renaming a feature instead of overriding {@link FeatureProvider#willLoadFeatureId(String)}.
+	 */
+	public void registerAlias(String legacyIdentifier, String identifier);
+	
 	public IFeatureBuilder getFeatureBuilder(IWorldData worldData);
 
 }
@@ -2,51 +2,80 @@ package ml.sgworlds.api.world.feature.prefab;
 
 import java.util.List;
 
+import ml.sgworlds.api.world.ChunkHeightmap;
 import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureProvider;
 import ml.sgworlds.api.world.feature.FeatureType;
 import ml.sgworlds.api.world.feature.WorldFeature;
-import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
+import ml.sgworlds.api.world.feature.types.IHeightEstimator;
+import ml.sgworlds.api.world.feature.types.IHeightmapTerrainGenerator;
 import net.minecraft.block.Block;
+import net.minecraft.world.biome.BiomeGenBase;
 
-public abstract class BaseTerrainGenerator extends WorldFeature implements ITerrainGenerator {
+public abstract class BaseTerrainGenerator extends WorldFeature implements IHeightmapTerrainGenerator, IHeightEstimator {
 
 	public BaseTerrainGenerator(FeatureProvider provider, IWorldData worldData) {
 		super(provider, worldData);
 	}
 
-	private double[] noiseArray;
+	/**
+	 * Scratch buffers for generating one chunk. Each thread gets its own, so a single terrain feature can generate several chunks at once.
+	 * Subclasses that need more buffers should extend this and override {@link BaseTerrainGenerator#createContext()}.
+	 */
+	public static class TerrainContext {
+		public double[] noiseArray;
+		public double[] estimateArray;
+	}
+
+	private final ThreadLocal<TerrainContext> contexts = new ThreadLocal<TerrainContext>() {
+		@Override
+		protected TerrainContext initialValue() {
+			return createContext();
+		}
+	};
 	
 	public short fillBlockId = (short)Block.stone.blockID;
 	public byte fillBlockMeta = 0;
 	public short oceanBlockId = (short)Block.waterStill.blockID;
 	public byte oceanBlockMeta = 0;
+	public int seaLevel = 63;
 	
 	@Override
 	public void getSecondaryTypes(List<FeatureType> types) {}
 
+	protected TerrainContext createContext() {
+		return new TerrainContext();
+	}
+
+	@Override
+	public void generateTerrain(int chunkX, int chunkZ, BiomeGenBase[] genBiomes, short[] blockIds, byte[] blockMetas) {
+		generateTerrain(chunkX, chunkZ, genBiomes, blockIds, blockMetas, null);
+	}
+
 	@Override
-	public void generateTerrain(int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas) {
+	public void generateTerrain(int chunkX, int chunkZ, BiomeGenBase[] genBiomes, short[] blockIds, byte[] blockMetas, ChunkHeightmap heightmap) {
 		int width = 4;
 		int height = 16;
-		int seaLevel = 63;
 		int k = width + 1;
 		int b3 = height + 1;
 		int l = width + 1;
-		this.noiseArray = this.initializeNoiseField(this.noiseArray, chunkX * width, 0, chunkZ * width, k, b3, l);
+		TerrainContext ctx = contexts.get();
+		double[] noiseArray = ctx.noiseArray = this.initializeNoiseField(ctx, ctx.noiseArray, genBiomes, chunkX * width, 0, chunkZ * width, k, b3, l);
+		boolean fillSolid = ChunkHeightmap.isSolid(fillBlockId);
+		boolean oceanSolid = ChunkHeightmap.isSolid(oceanBlockId);
 
 		for (int majorX = 0; majorX < width; ++majorX) {
 			for (int majorZ = 0; majorZ < width; ++majorZ) {
 				for (int majorY = 0; majorY < height; ++majorY) {
 					double d0 = 0.125D;
-					double d1 = this.noiseArray[((majorX + 0) * l + majorZ + 0) * b3 + majorY + 0];
-					double d2 = this.noiseArray[((majorX + 0) * l + majorZ + 1) * b3 + majorY + 0];
-					double d3 = this.noiseArray[((majorX + 1) * l + majorZ + 0) * b3 + majorY + 0];
-					double d4 = this.noiseArray[((majorX + 1) * l + majorZ + 1) * b3 + majorY + 0];
-					double d5 = (this.noiseArray[((majorX + 0) * l + majorZ + 0) * b3 + majorY + 1] - d1) * d0;
-					double d6 = (this.noiseArray[((majorX + 0) * l + majorZ + 1) * b3 + majorY + 1] - d2) * d0;
-					double d7 = (this.noiseArray[((majorX + 1) * l + majorZ + 0) * b3 + majorY + 1] - d3) * d0;
-					double d8 = (this.noiseArray[((majorX + 1) * l + majorZ + 1) * b3 + majorY + 1] - d4) * d0;
+					double d1 = noiseArray[((majorX + 0) * l + majorZ + 0) * b3 + majorY + 0];
+					double d2 = noiseArray[((majorX + 0) * l + majorZ + 1) * b3 + majorY + 0];
+					double d3 = noiseArray[((majorX + 1) * l + majorZ + 0) * b3 + majorY + 0];
+					double d4 = noiseArray[((majorX + 1) * l + majorZ + 1) * b3 + majorY + 0];
+					double d5 = (noiseArray[((majorX + 0) * l + majorZ + 0) * b3 + majorY + 1] - d1) * d0;
+					double d6 = (noiseArray[((majorX + 0) * l + majorZ + 1) * b3 + majorY + 1] - d2) * d0;
+					double d7 = (noiseArray[((majorX + 1) * l + majorZ + 0) * b3 + majorY + 1] - d3) * d0;
+					double d8 = (noiseArray[((majorX + 1) * l + majorZ + 1) * b3 + majorY + 1] - d4) * d0;
 
 					int y = majorY*8;
 					for (int minorY = 0; minorY < 8; ++minorY) {
@@ -78,6 +107,7 @@ public abstract class BaseTerrainGenerator extends WorldFeature implements ITerr
 								}
 								blockIds[apos] = block;
 								blockMetas[apos] = meta;
+								if (heightmap != null && block != 0) heightmap.markBlock(x, y, z, block == fillBlockId ? fillSolid : oceanSolid);
 								
 								z++;
 							}
@@ -100,7 +130,73 @@ public abstract class BaseTerrainGenerator extends WorldFeature implements ITerr
 		}			
 	}
 
-	public abstract double[] initializeNoiseField(double[] par1ArrayOfDouble, int subX, int subY, int subZ, int sizeX, int sizeY, int sizeZ);
+	/**
+	 * Samples the four noise columns around the block column and interpolates them the same way {@link #generateTerrain} does,
+	 * so the estimate matches the generated terrain.
+	 */
+	@Override
+	public int estimateTerrainHeight(int x, int z, BiomeGenBase[] genBiomes) {
+		int height = 16;
+		int b3 = height + 1;
+		int l = 2;
+		int minorX = x & 3;
+		int minorZ = z & 3;
+		TerrainContext ctx = contexts.get();
+		double[] noiseArray = ctx.estimateArray = this.initializeNoiseField(ctx, ctx.estimateArray, genBiomes, x >> 2, 0, z >> 2, 2, b3, 2);
+
+		for (int majorY = height-1; majorY >= 0; --majorY) {
+			double d0 = 0.125D;
+			double d1 = noiseArray[(0 * l + 0) * b3 + majorY + 0];
+			double d2 = noiseArray[(0 * l + 1) * b3 + majorY + 0];
+			double d3 = noiseArray[(1 * l + 0) * b3 + majorY + 0];
+			double d4 = noiseArray[(1 * l + 1) * b3 + majorY + 0];
+			double d5 = (noiseArray[(0 * l + 0) * b3 + majorY + 1] - d1) * d0;
+			double d6 = (noiseArray[(0 * l + 1) * b3 + majorY + 1] - d2) * d0;
+			double d7 = (noiseArray[(1 * l + 0) * b3 + majorY + 1] - d3) * d0;
+			double d8 = (noiseArray[(1 * l + 1) * b3 + majorY + 1] - d4) * d0;
+
+			int top = -1;
+			for (int minorY = 0; minorY < 8; ++minorY) {
+				double d9 = 0.25D;
+				double d10 = d1;
+				double d11 = d2;
+				double d12 = (d3 - d1) * d9;
+				double d13 = (d4 - d2) * d9;
+
+				for (int i = 0; i < minorX; ++i) {
+					d10 += d12;
+					d11 += d13;
+				}
+
+				double d15 = (d11 - d10) * 0.25D;
+				double d16 = d10 - d15;
+				for (int i = 0; i <= minorZ; ++i) {
+					d16 += d15;
+				}
+				if (d16 > 0.0D) top = minorY;
+
+				d1 += d5;
+				d2 += d6;
+				d3 += d7;
+				d4 += d8;
+			}
+
+			if (top >= 0) return majorY*8 + top + 1;
+		}
+		return 0;
+	}
+
+	@Override
+	public int getSeaLevel() {
+		return oceanBlockId != 0 ? seaLevel : 0;
+	}
+
+	/**
+	 * Must only use the context for scratch state, as it can be called by several threads at once.
+	 * @param ctx The calling thread's context, as created by {@link #createContext()}.
+	 * @param genBiomes The biome sample handed to {@link #generateTerrain}, (sizeX+5)*(sizeZ+5) starting at (subX-2, subZ-2).
+	 */
+	public abstract double[] initializeNoiseField(TerrainContext ctx, double[] par1ArrayOfDouble, BiomeGenBase[] genBiomes, int subX, int subY, int subZ, int sizeX, int sizeY, int sizeZ);
 
 	@Override
 	public void setFillerBlock(int x, int y, int z, int blockIndex, short[] blockIds, byte[] blockMetas) {
@@ -0,0 +1,12 @@
+package ml.sgworlds.api.world.feature.types;
+
+import net.minecraft.world.World;
+
+/**
+ * An {@link ITerrainModifier} that only works on the block arrays it is handed.<br/>
+ * These are run on the chunk generation worker threads, so implementations must not use the World beyond {@link World#getSeed()}
+ * and must not share mutable state between calls.
+ */
+public interface IConcurrentTerrainModifier extends ITerrainModifier {
+
+}
@@ -0,0 +1,29 @@
+package ml.sgworlds.api.world.feature.types;
+
+import net.minecraft.world.biome.BiomeGenBase;
+
+/**
+ * An {@link ITerrainGenerator} that can work out the terrain height of a single column straight from its noise, without
+ * generating the chunk. Used to site temples and structures cheaply.
+ */
+public interface IHeightEstimator extends ITerrainGenerator {
+
+	/**
+	 * Width and length of the biome sample passed to {@link #estimateTerrainHeight}.<br/>
+	 * The sample comes from getBiomesForGeneration starting at ((x>>2)-2, (z>>2)-2).
+	 */
+	public static final int ESTIMATE_BIOMES_SIZE = 7;
+
+	/**
+	 * Same threading rules as {@link #generateTerrain}.
+	 * @param genBiomes The low resolution biomes around the column. See {@link #ESTIMATE_BIOMES_SIZE}.
+	 * @return One above the highest block {@link #generateTerrain} would fill at the column, ignoring the ocean.
+	 */
+	public int estimateTerrainHeight(int x, int z, BiomeGenBase[] genBiomes);
+
+	/**
+	 * @return The height up to which the generator fills empty space with its ocean block, or 0 if it doesn't.
+	 */
+	public int getSeaLevel();
+
+}
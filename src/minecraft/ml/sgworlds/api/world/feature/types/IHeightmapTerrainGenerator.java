@@ -0,0 +1,18 @@
+package ml.sgworlds.api.world.feature.types;
+
+import ml.sgworlds.api.world.ChunkHeightmap;
+import net.minecraft.world.biome.BiomeGenBase;
+
+/**
+ * An {@link ITerrainGenerator} that records the column heights while it fills the block arrays, which saves a scan of the
+ * finished chunk. Generators that don't implement this get their heightmap built from the block arrays instead.
+ */
+public interface IHeightmapTerrainGenerator extends ITerrainGenerator {
+
+	/**
+	 * Called instead of {@link #generateTerrain(int, int, BiomeGenBase[], short[], byte[])}.<br/>
+	 * Every non-air block placed must be recorded in the heightmap. Surface replacement skips anything above the top height.
+	 */
+	public void generateTerrain(int chunkX, int chunkZ, BiomeGenBase[] genBiomes, short[] blockIds, byte[] blockMetas, ChunkHeightmap heightmap);
+
+}
@@ -1,9 +1,24 @@
 package ml.sgworlds.api.world.feature.types;
 
+import ml.sgworlds.api.world.feature.prefab.BaseTerrainGenerator;
+import net.minecraft.world.biome.BiomeGenBase;
+
 
 public interface ITerrainGenerator {
 
-	public void generateTerrain(int chunkX, int chunkY, short[] blockIds, byte[] blockMetas);
+	/**
+	 * Width and length of the biome sample passed to {@link #generateTerrain}.<br/>
+	 * The sample comes from getBiomesForGeneration starting at (chunkX*4-2, chunkZ*4-2), the same area vanilla uses for terrain noise.
+	 */
+	public static final int GEN_BIOMES_SIZE = 10;
+
+	/**
+	 * Fills the block arrays with the base terrain of the chunk.<br/>
+	 * This may be called from several chunk generation worker threads at once, so it must be reentrant and must not touch the World or its chunk manager.<br/>
+	 * See {@link BaseTerrainGenerator} for a reentrant implementation.
+	 * @param genBiomes The low resolution biomes around the chunk. See {@link #GEN_BIOMES_SIZE}.
+	 */
+	public void generateTerrain(int chunkX, int chunkZ, BiomeGenBase[] genBiomes, short[] blockIds, byte[] blockMetas);
 	
 	/**
 	 * Fill the specified block with the correct filler block.
@@ -0,0 +1,266 @@
+package ml.sgworlds.world;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import ml.sgworlds.Registry;
+import ml.sgworlds.world.TickTaskScheduler.ITickTask;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ChatMessageComponent;
+import net.minecraft.util.ChunkCoordinates;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.ChunkPosition;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+import cpw.mods.fml.common.FMLLog;
+
+/**
+ * Generates and populates a square spiral of chunks around a world's gate, a slice each tick.<br/>
+ * Progress is checkpointed to <code>SG_WORLD&lt;dim&gt;.pregen</code> in the save folder after every ring so an
+ * interrupted run picks up again after a restart.
+ */
+public class ChunkPregenerator implements ITickTask {
+
+	private static final String CHECKPOINT_EXT = ".pregen";
+	private static final long REPORT_INTERVAL = 10000000000L;
+
+	private final SGWorldData worldData;
+	private final int centerX;
+	private final int centerZ;
+	private final int radius;
+	private String reportTo;
+
+	private int ring;
+	private int ringIndex;
+	private long chunksDone;
+	private long lastReport;
+
+	/**
+	 * @param reportTo The username to send progress to, or null for the server log only.
+	 */
+	public ChunkPregenerator(SGWorldData worldData, int radius, String reportTo) {
+		this(worldData, radius, 0, reportTo);
+	}
+
+	private ChunkPregenerator(SGWorldData worldData, int radius, int startRing, String reportTo) {
+		this.worldData = worldData;
+		this.radius = radius;
+		this.ring = startRing;
+		this.reportTo = reportTo;
+		this.lastReport = System.nanoTime();
+
+		ChunkPosition gate = worldData.getGateLocation();
+		if (gate != null) {
+			centerX = gate.x >> 4;
+			centerZ = gate.z >> 4;
+		} else {
+			ChunkCoordinates spawn = getWorld().getSpawnPoint();
+			centerX = spawn.posX >> 4;
+			centerZ = spawn.posZ >> 4;
+		}
+	}
+
+	public SGWorldData getWorldData() {
+		return worldData;
+	}
+
+	/**
+	 * Chunks are only populated once their +x/+z neighbours exist, so one extra ring is generated past the radius.
+	 */
+	private int getLastRing() {
+		return radius + 1;
+	}
+
+	public long getTotalChunks() {
+		long side = 2 * getLastRing() + 1;
+		return side * side;
+	}
+
+	public int getPercentDone() {
+		long done = (long)(2*ring - 1) * (2*ring - 1) + ringIndex;
+		if (ring == 0) done = 0;
+		return (int)Math.min(100, done * 100 / getTotalChunks());
+	}
+
+	private WorldServer getWorld() {
+		return MinecraftServer.getServer().worldServerForDimension(worldData.getDimensionId());
+	}
+
+	@Override
+	public long getTickBudget() {
+		return Registry.config.pregenTickBudgetMs * 1000000L;
+	}
+
+	@Override
+	public boolean runSlice(long deadline) {
+		WorldServer world = getWorld();
+
+		do {
+			int ringSize = ring == 0 ? 1 : 8 * ring;
+			if (ringIndex >= ringSize) {
+				finishRing(world, ring);
+				ring++;
+				ringIndex = 0;
+
+				if (ring > getLastRing()) {
+					for (int r = Math.max(0, ring - 2); r < ring; r++) {
+						unloadRing(world, r);
+					}
+					getCheckpointFile(worldData).delete();
+					FMLLog.info("[SGWorlds] Finished pregenerating %s (%d chunks)", worldData.getDesignation(), chunksDone);
+					report("command.sgw.pregen.done", worldData.getDesignation(), chunksDone);
+					return true;
+				}
+				continue;
+			}
+
+			int side = ring == 0 ? 0 : ringIndex / (2*ring);
+			int off = ring == 0 ? 0 : ringIndex % (2*ring);
+			int cx = centerX + spiralX(ring, side, off);
+			int cz = centerZ + spiralZ(ring, side, off);
+
+			world.theChunkProviderServer.loadChunk(cx, cz);
+			chunksDone++;
+			ringIndex++;
+		} while (System.nanoTime() < deadline);
+
+		if (System.nanoTime() - lastReport > REPORT_INTERVAL) {
+			lastReport = System.nanoTime();
+			FMLLog.info("[SGWorlds] Pregenerating %s: %d%% (ring %d/%d)", worldData.getDesignation(), getPercentDone(), ring, getLastRing());
+			report("command.sgw.pregen.progress", worldData.getDesignation(), getPercentDone(), ring, getLastRing());
+		}
+		return false;
+	}
+
+	private static int spiralX(int ring, int side, int off) {
+		switch (side) {
+		case 0: return -ring + off;
+		case 1: return ring;
+		case 2: return ring - off;
+		default: return -ring;
+		}
+	}
+
+	private static int spiralZ(int ring, int side, int off) {
+		switch (side) {
+		case 0: return -ring;
+		case 1: return -ring + off;
+		case 2: return ring;
+		default: return ring - off;
+		}
+	}
+
+	/**
+	 * Once ring n is done every chunk of ring n-1 has been populated, so ring n-2 is no longer needed in memory.
+	 */
+	private void finishRing(WorldServer world, int ring) {
+		if (ring >= 2) unloadRing(world, ring - 2);
+		writeCheckpoint();
+	}
+
+	private void unloadRing(WorldServer world, int ring) {
+		int viewDist = MinecraftServer.getServer().getConfigurationManager().getViewDistance() + 1;
+		int ringSize = ring == 0 ? 1 : 8 * ring;
+		for (int i = 0; i < ringSize; i++) {
+			int side = ring == 0 ? 0 : i / (2*ring);
+			int off = ring == 0 ? 0 : i % (2*ring);
+			int cx = centerX + spiralX(ring, side, off);
+			int cz = centerZ + spiralZ(ring, side, off);
+			if (!isNearPlayer(world, cx, cz, viewDist)) {
+				world.theChunkProviderServer.unloadChunksIfNotNearSpawn(cx, cz);
+			}
+		}
+	}
+
+	private static boolean isNearPlayer(WorldServer world, int cx, int cz, int dist) {
+		for (Object obj : world.playerEntities) {
+			EntityPlayer player = (EntityPlayer)obj;
+			if (Math.abs((MathHelper.floor_double(player.posX) >> 4) - cx) <= dist && Math.abs((MathHelper.floor_double(player.posZ) >> 4) - cz) <= dist) return true;
+		}
+		return false;
+	}
+
+	private void report(String key, Object... args) {
+		if (reportTo != null) {
+			EntityPlayerMP player = MinecraftServer.getServer().getConfigurationManager().getPlayerForUsername(reportTo);
+			if (player != null) player.sendChatToPlayer(ChatMessageComponent.createFromTranslationWithSubstitutions(key, args));
+		}
+	}
+
+	@Override
+	public void cancel() {
+		writeCheckpoint();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ChunkPregenerator[%s, radius %d]", worldData.getDesignation(), radius);
+	}
+
+	private static File getCheckpointFile(SGWorldData worldData) {
+		return new File(DimensionManager.getCurrentSaveRootDirectory(), worldData.getSaveFolderName() + CHECKPOINT_EXT);
+	}
+
+	private void writeCheckpoint() {
+		try {
+			NBTTagCompound tag = new NBTTagCompound();
+			tag.setString("designation", worldData.getDesignation());
+			tag.setInteger("radius", radius);
+			tag.setInteger("ring", ring);
+
+			FileOutputStream fileoutputstream = new FileOutputStream(getCheckpointFile(worldData));
+			CompressedStreamTools.writeCompressed(tag, fileoutputstream);
+			fileoutputstream.close();
+		} catch (Exception e) {
+			FMLLog.severe("Could not write the pregeneration checkpoint for %s (%s)", worldData.getDesignation(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops any running pregeneration of the world and removes its checkpoint.
+	 * @return True if there was something to stop.
+	 */
+	public static boolean stop(SGWorldData worldData) {
+		boolean found = false;
+		for (ITickTask task : TickTaskScheduler.instance.getTasks()) {
+			if (task instanceof ChunkPregenerator && ((ChunkPregenerator)task).worldData == worldData) {
+				TickTaskScheduler.instance.remove(task);
+				found = true;
+				break;
+			}
+		}
+		return getCheckpointFile(worldData).delete() || found;
+	}
+
+	/**
+	 * Re-schedules pregeneration runs that were interrupted by a shutdown.
+	 * Resumes one ring early, since the ring that was being populated was unloaded with the world.
+	 */
+	public static void resumeCheckpoints(SGWorldManager manager) {
+		for (SGWorldData worldData : manager.getSGWorlds()) {
+			if (worldData.getDimensionId() == 0) continue;
+
+			File checkpoint = getCheckpointFile(worldData);
+			if (!checkpoint.exists()) continue;
+
+			try {
+				FileInputStream istream = new FileInputStream(checkpoint);
+				NBTTagCompound tag = CompressedStreamTools.readCompressed(istream);
+				istream.close();
+
+				if (!worldData.getDesignation().equals(tag.getString("designation"))) continue;
+
+				ChunkPregenerator pregen = new ChunkPregenerator(worldData, tag.getInteger("radius"), Math.max(0, tag.getInteger("ring") - 1), null);
+				TickTaskScheduler.instance.schedule(pregen);
+				FMLLog.info("[SGWorlds] Resuming chunk pregeneration of %s at ring %d", worldData.getDesignation(), pregen.ring);
+			} catch (Exception e) {
+				FMLLog.severe("Could not read the pregeneration checkpoint for %s (%s)", worldData.getDesignation(), e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package ml.sgworlds.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ml.sgworlds.api.world.GateSiteMap;
+import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.api.world.IScoredTempleGenerator;
+import ml.sgworlds.api.world.IWorldData;
+import ml.sgworlds.api.world.feature.types.IHeightEstimator;
+import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
+import ml.sgworlds.world.gen.ChunkGenExecutor;
+import net.minecraft.world.ChunkPosition;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.biome.BiomeGenBase;
+
+/**
+ * Picks a world's gate temple and site by scoring every {@link IScoredTempleGenerator} against a {@link GateSiteMap} of the
+ * spawn region.<br/>
+ * The heights and the scores are worked out on the chunk generation workers, or up front when those are turned off; {@link #poll(long)}
+ * advances the selection from the server thread, waiting on them no longer than it is told to. The result only depends on the world
+ * seed and the registered temples.<br/>
+ * Many cells score the same on ordinary terrain, so scores are scaled down with the distance from the origin. The nearest of
+ * equally good sites then wins, rather than the first one from the map's corner.
+ */
+public class GateSiteSelector {
+
+	private static final int CELL_SIZE = 16;
+	private static final int MAP_SIZE = 64;
+	/** Sites are kept within this many blocks of the origin on each axis, the range the temples searched before. */
+	private static final int SITE_RANGE = 500;
+	/** How much of its score a site at the edge of the range loses against one at the origin. */
+	private static final float DISTANCE_PENALTY = 0.2F;
+
+	private final WorldServer world;
+	private final GateSiteMap map;
+	private final List<IScoredTempleGenerator> temples;
+	private final List<Future<?>> heightJobs = new ArrayList<Future<?>>();
+	private List<Future<Site>> scoreJobs;
+
+	private IScoredTempleGenerator bestTemple;
+	private int bestCellX, bestCellZ;
+
+	private static class Site {
+		final IScoredTempleGenerator temple;
+		float score = -1;
+		int cellX, cellZ;
+
+		Site(IScoredTempleGenerator temple) {
+			this.temple = temple;
+		}
+	}
+
+	private GateSiteSelector(WorldServer world, List<IScoredTempleGenerator> temples) {
+		this.world = world;
+		this.temples = temples;
+		int origin = -CELL_SIZE * MAP_SIZE / 2;
+		this.map = new GateSiteMap(origin, origin, CELL_SIZE, MAP_SIZE);
+	}
+
+	/**
+	 * Samples the biomes of the spawn region and queues the height estimates. Server thread only.
+	 * @return The started selector, or null if no temple can be scored or the world's terrain generator can't estimate heights.
+	 */
+	public static GateSiteSelector start(WorldServer world, IWorldData worldData, List<IGateTempleGenerator> templeGens) {
+		ITerrainGenerator terrainGenerator = worldData.getTerrainGenerator();
+		if (!(terrainGenerator instanceof IHeightEstimator)) return null;
+
+		List<IScoredTempleGenerator> temples = new ArrayList<IScoredTempleGenerator>();
+		for (IGateTempleGenerator temple : templeGens) {
+			if (temple instanceof IScoredTempleGenerator) temples.add((IScoredTempleGenerator)temple);
+		}
+		if (temples.isEmpty()) return null;
+
+		GateSiteSelector selector = new GateSiteSelector(world, temples);
+		selector.queueHeights((IHeightEstimator)terrainGenerator);
+		return selector;
+	}
+
+	private void queueHeights(final IHeightEstimator estimator) {
+		// One low resolution biome sample covering every estimate's surroundings.
+		final int qMin = (map.getBlockX(0) >> 2) - 2;
+		int qMax = (map.getBlockX(MAP_SIZE-1) >> 2) + 4;
+		final int qWidth = qMax - qMin + 1;
+		final BiomeGenBase[] genBiomes = world.getWorldChunkManager().getBiomesForGeneration(null, qMin, qMin, qWidth, qWidth).clone();
+		final int seaLevel = estimator.getSeaLevel();
+
+		for (int row = 0; row < MAP_SIZE; row++) {
+			final int cellZ = row;
+			heightJobs.add(submit(new FutureTask<Object>(new Runnable() {
+				@Override
+				public void run() {
+					int size = IHeightEstimator.ESTIMATE_BIOMES_SIZE;
+					BiomeGenBase[] sample = new BiomeGenBase[size*size];
+					int z = map.getBlockZ(cellZ);
+
+					for (int cellX = 0; cellX < MAP_SIZE; cellX++) {
+						int x = map.getBlockX(cellX);
+						int sx = (x >> 2) - 2 - qMin, sz = (z >> 2) - 2 - qMin;
+						for (int i = 0; i < size; i++) {
+							System.arraycopy(genBiomes, (sz + i) * qWidth + sx, sample, i * size, size);
+						}
+
+						int height = estimator.estimateTerrainHeight(x, z, sample);
+						map.setCell(cellX, cellZ, sample[2 * size + 2], Math.max(height, seaLevel), height);
+					}
+				}
+			}, null)));
+		}
+	}
+
+	private void queueScores() {
+		scoreJobs = new ArrayList<Future<Site>>();
+		for (final IScoredTempleGenerator temple : temples) {
+			scoreJobs.add(submit(new FutureTask<Site>(new Callable<Site>() {
+				@Override
+				public Site call() {
+					Site site = new Site(temple);
+					for (int cellZ = 0; cellZ < MAP_SIZE; cellZ++) {
+						for (int cellX = 0; cellX < MAP_SIZE; cellX++) {
+							int x = map.getBlockX(cellX), z = map.getBlockZ(cellZ);
+							if (Math.abs(x) > SITE_RANGE || Math.abs(z) > SITE_RANGE) continue;
+
+							float score = temple.scoreSite(map, cellX, cellZ);
+							if (score < 0) continue;
+
+							float distance = (float)Math.sqrt(x*x + z*z) / SITE_RANGE;
+							score *= 1 - DISTANCE_PENALTY * Math.min(distance, 1);
+							if (score > site.score) {
+								site.score = score;
+								site.cellX = cellX;
+								site.cellZ = cellZ;
+							}
+						}
+					}
+					return site;
+				}
+			})));
+		}
+	}
+
+	/**
+	 * Runs the job on the chunk generation workers, or right here if asynchronous chunk generation is turned off.
+	 */
+	private static <T> Future<T> submit(FutureTask<T> job) {
+		if (ChunkGenExecutor.isEnabled()) {
+			ChunkGenExecutor.getExecutor().execute(job);
+		} else {
+			job.run();
+		}
+		return job;
+	}
+
+	/**
+	 * Advances the selection, waiting on the workers until the deadline at most. Server thread only.
+	 * @return True once a temple was picked, or none of them found a site.
+	 */
+	public boolean poll(long deadline) {
+		if (scoreJobs == null) {
+			for (Future<?> job : heightJobs) {
+				if (!awaitResult(job, deadline)) return false;
+			}
+			queueScores();
+		}
+
+		for (Future<Site> job : scoreJobs) {
+			if (!awaitResult(job, deadline)) return false;
+		}
+
+		// Temples are weighed with a factor from the world seed, so the same temple doesn't win every world with similar terrain.
+		float bestScore = -1;
+		for (int i = 0; i < scoreJobs.size(); i++) {
+			Site site = getResult(scoreJobs.get(i));
+			if (site.score < 0) continue;
+
+			float bias = 0.75F + 0.5F * new Random(WorldDataGenerator.splitSeed(world.getSeed(), i)).nextFloat();
+			if (site.score * bias > bestScore) {
+				bestScore = site.score * bias;
+				bestTemple = site.temple;
+				bestCellX = site.cellX;
+				bestCellZ = site.cellZ;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return False if the job didn't finish before the deadline.
+	 */
+	private boolean awaitResult(Future<?> job, long deadline) {
+		if (!job.isDone()) {
+			try {
+				job.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				return false;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(String.format("Failed to find a gate site in dimension %d", world.provider.dimensionId), e.getCause());
+			}
+		}
+		getResult(job);
+		return true;
+	}
+
+	private <T> T getResult(Future<T> job) {
+		try {
+			return job.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(String.format("Failed to find a gate site in dimension %d", world.provider.dimensionId), e.getCause());
+		}
+	}
+
+	/**
+	 * Stops any outstanding work.
+	 */
+	public void cancel() {
+		for (Future<?> job : heightJobs) job.cancel(false);
+		if (scoreJobs != null) {
+			for (Future<?> job : scoreJobs) job.cancel(false);
+		}
+	}
+
+	/**
+	 * @return The picked temple, or null if none of them found a site.
+	 */
+	public IScoredTempleGenerator getTemple() {
+		return bestTemple;
+	}
+
+	/**
+	 * @return The gate coordinates of the picked temple at the picked site, or null.
+	 */
+	public ChunkPosition getGateCoords(int gateRotation) {
+		if (bestTemple == null) return null;
+		return bestTemple.getGateCoords(world, gateRotation, map.getBlockX(bestCellX), map.getBlockZ(bestCellZ));
+	}
+}
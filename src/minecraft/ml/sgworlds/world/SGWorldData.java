@@ -3,7 +3,10 @@ package ml.sgworlds.world;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
@@ -15,6 +18,9 @@ import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureProvider;
 import ml.sgworlds.api.world.feature.FeatureType;
 import ml.sgworlds.api.world.feature.WorldFeature;
+import ml.sgworlds.api.world.feature.types.IBiomeController;
+import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
+import ml.sgworlds.api.world.feature.types.IWeatherController;
 import ml.sgworlds.world.dimension.SGWorldProvider;
 import ml.sgworlds.world.feature.FeatureManager;
 import net.minecraft.nbt.CompressedStreamTools;
@@ -27,6 +33,8 @@ import stargatetech2.api.stargate.Address;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 
+import cpw.mods.fml.common.FMLLog;
+
 /**
  * Stores info for individual worlds generated by SGWorlds. e.g. Day Length, # of suns/moons, etc.
  * Pre-generated when a world is started.
@@ -41,11 +49,57 @@ public class SGWorldData implements IWorldData {
 	private int dimensionId = 0;
 	private long seed;
 	private Multimap<FeatureType, WorldFeature> features = HashMultimap.create();
+	/** Immutable per-type view of {@link #features}. Dropped whenever the features change and rebuilt on the next read. */
+	private volatile FeatureSnapshot featureSnapshot;
 	private SGWorldProvider worldProvider;
 	private boolean dirty;
 	
 	private long worldTime;
 	
+	/** Stream of the world seed used by {@link #fillFeatures(boolean)}. */
+	private static final long FILL_STREAM = 1;
+	
+	/** Where the rest of this world's data comes from while it is still a stub. Null once hydrated. */
+	private volatile IRecordSource recordSource;
+	/** Set if the record of a stub could not be loaded. */
+	private volatile boolean loadFailed;
+	/** True while this thread reads the record of a stub. Guarded by this. */
+	private boolean hydrating;
+	
+	/**
+	 * Feature arrays indexed by {@link FeatureType#ordinal()}, plus the singleton types that are used every tick.
+	 */
+	private static final class FeatureSnapshot {
+		private final WorldFeature[][] arrays = new WorldFeature[FeatureType.values().length][];
+		private final List<WorldFeature>[] lists = new List[FeatureType.values().length];
+		private final ITerrainGenerator terrainGenerator;
+		private final IBiomeController biomeController;
+		private final IWeatherController weatherController;
+
+		private FeatureSnapshot(Multimap<FeatureType, WorldFeature> features) {
+			for (FeatureType type : FeatureType.values()) {
+				WorldFeature[] array = (type == FeatureType.ALL ? features.values() : features.get(type)).toArray(new WorldFeature[0]);
+				arrays[type.ordinal()] = array;
+				lists[type.ordinal()] = Collections.unmodifiableList(Arrays.asList(array));
+			}
+			terrainGenerator = (ITerrainGenerator)first(FeatureType.TERRAIN_GENERATOR);
+			biomeController = (IBiomeController)first(FeatureType.BIOME_CONTROLLER);
+			weatherController = (IWeatherController)first(FeatureType.WEATHER_CONTROLLER);
+		}
+
+		private WorldFeature first(FeatureType type) {
+			WorldFeature[] array = arrays[type.ordinal()];
+			return array.length > 0 ? array[0] : null;
+		}
+	}
+	
+	/**
+	 * Supplies the full record of a stub world.
+	 */
+	public static interface IRecordSource {
+		public NBTTagCompound loadRecord(String designation) throws IOException;
+	}
+	
 	public SGWorldData(String designation, Address address) {
 		this.designation = designation;
 		this.primaryAddress = address;
@@ -56,8 +110,73 @@ public class SGWorldData implements IWorldData {
 	public SGWorldData(NBTTagCompound tag) {
 		readFromNBT(tag);
 	}
+	
+	private SGWorldData(String designation, Address address, int dimensionId, long seed, IRecordSource source) {
+		this.designation = designation;
+		this.primaryAddress = address;
+		this.dimensionId = dimensionId;
+		this.seed = seed;
+		this.recordSource = source;
+	}
+	
+	/**
+	 * Creates a lightweight world that only knows its designation, address, dimension and seed.
+	 * Everything else, notably the features, is read from the source the first time it's needed.
+	 */
+	public static SGWorldData createStub(String designation, Address address, int dimensionId, long seed, IRecordSource source) {
+		return new SGWorldData(designation, address, dimensionId, seed, source);
+	}
+	
+	public boolean isHydrated() {
+		return recordSource == null;
+	}
+	
+	/**
+	 * Inflates the record of a stub, if it hasn't been already.
+	 * @return False if the record could not be loaded. The world then stays a stub.
+	 */
+	public boolean hydrate() {
+		if (recordSource != null && !loadFailed) hydrateFromSource();
+		return !loadFailed;
+	}
+	
+	/**
+	 * Other threads wait on the lock until the record is fully read. {@link #recordSource} is only cleared once the
+	 * fields are published, so a thread that sees the world as hydrated never sees a partial one.
+	 */
+	private synchronized void hydrateFromSource() {
+		IRecordSource source = recordSource;
+		// Features being loaded may ask for the world's features on this thread
+		if (source == null || loadFailed || hydrating) return;
+		
+		// Keep anything that was changed on the stub
+		int stubDim = dimensionId;
+		boolean wasDirty = dirty;
+		
+		hydrating = true;
+		try {
+			NBTTagCompound tag = source.loadRecord(designation);
+			if (tag == null) throw new IOException("No saved data");
+			
+			load(tag);
+			if (stubDim != 0) dimensionId = stubDim;
+			dirty |= wasDirty;
+			recordSource = null;
+		} catch (Exception e) {
+			// The catalog keeps the saved record of a world that stays a stub.
+			if (stubDim != 0) dimensionId = stubDim;
+			dirty = wasDirty;
+			loadFailed = true;
+			FMLLog.severe("The world \"%s\" could not be loaded! (%s)", designation, e.getMessage());
+		} finally {
+			hydrating = false;
+		}
+		// load() indexed the saved dimension id, not the one restored from the stub
+		reindex();
+	}
 
 	public String getDisplayName() {
+		hydrate();
 		return (name == null || name.equals("")) ? designation : name;
 	}
 	
@@ -88,6 +207,11 @@ public class SGWorldData implements IWorldData {
 	}
 	
 	public void readFromNBT(NBTTagCompound nbt) {
+		load(nbt);
+		this.recordSource = null;
+	}
+	
+	private void load(NBTTagCompound nbt) {
 		this.designation = nbt.getString("designation");
 		this.name = nbt.getString("name");
 		this.primaryAddress = StargateTechAPI.api().getStargateNetwork().parseAddress(nbt.getString("address"));
@@ -96,7 +220,7 @@ public class SGWorldData implements IWorldData {
 		this.seed = nbt.getLong("seed");
 		this.worldTime = nbt.getLong("worldTime");
 		
-		features = HashMultimap.create();
+		Multimap<FeatureType, WorldFeature> loaded = HashMultimap.create();
 		NBTTagList list = nbt.getTagList("features");
 		for (int i=0; i<list.tagCount(); i++) {
 			NBTTagCompound ftag = (NBTTagCompound)list.tagAt(i);
@@ -104,17 +228,22 @@ public class SGWorldData implements IWorldData {
 			
 			FeatureProvider prov = FeatureManager.instance.getFeatureProvider(id);
 			if (prov != null) {
-				WorldFeature feature = prov.loadFromNBT(this, ftag.getCompoundTag("data"));
-				addFeature(feature);
+				putFeature(loaded, prov.loadFromNBT(this, ftag.getCompoundTag("data")));
 			} else {
-				throw new RuntimeException(String.format("Missing feature for identifier \"%s\"", id, getDisplayName()));
+				throw new RuntimeException(String.format("Missing feature for identifier \"%s\" in world \"%s\"", id, designation));
 			}
 		}
+		features = loaded;
+		featureSnapshot = null;
 	
+		// Repairs made by validateAndFix() leave the world dirty, so they get saved.
+		dirty = false;
 		validateAndFix();
+		reindex();
 	}
 
 	public void writeToNBT(NBTTagCompound nbt) {
+		hydrate();
 		nbt.setString("designation", designation);
 		nbt.setString("name", name);
 		if (primaryAddress != null)
@@ -167,13 +296,22 @@ public class SGWorldData implements IWorldData {
 		this.dirty = true;
 	}
 	
+	public boolean isDirty() {
+		return dirty;
+	}
+	
+	void markClean() {
+		this.dirty = false;
+	}
+	
 	/**
 	 * Checks if we meet the minimum count for each feature. If not, generate features to minimum.
 	 * @param useDefaults If true, default features are preferred. It will only generate a random feature if there isn't a default.
 	 * @return If any features were generated and added.
 	 */
 	public boolean fillFeatures(boolean useDefaults) {
-		Random rand = new Random();
+		hydrate();
+		Random rand = new Random(WorldDataGenerator.splitSeed(seed, FILL_STREAM));
 		
 		boolean flag = false;
 		for (FeatureType type : FeatureType.values()) {
@@ -185,9 +323,11 @@ public class SGWorldData implements IWorldData {
 				FeatureProvider provider = FeatureManager.instance.getDefaultFeatureProvider(type);
 				if (provider != null) {
 					this.features.put(type, provider.constructFeature(this));
+					featureSnapshot = null;
 				} else {
 					List<WorldFeature> features = WorldDataGenerator.generateRandomTypeFeatures(this, type, fcount, rand);
 					this.features.putAll(type, features);
+					featureSnapshot = null;
 				}
 				markDirty();
 			}
@@ -203,6 +343,11 @@ public class SGWorldData implements IWorldData {
 	public void setDimensionId(int dimensionId) {
 		if (this.dimensionId == 0) this.dimensionId = dimensionId;
 		markDirty();
+		reindex();
+	}
+
+	private void reindex() {
+		if (SGWorldManager.instance != null) SGWorldManager.instance.reindex(this);
 	}
 	
 	public Address getPrimaryAddress() {
@@ -219,10 +364,12 @@ public class SGWorldData implements IWorldData {
 	}
 	
 	public long getWorldTime() {
+		hydrate();
 		return worldTime;
 	}
 	
 	public void setWorldTime(long worldTime) {
+		hydrate();
 		this.worldTime = worldTime;
 		markDirty();
 	}
@@ -233,6 +380,7 @@ public class SGWorldData implements IWorldData {
 	}
 	
 	public void setWorldProvider(SGWorldProvider pvdr) {
+		hydrate();
 		this.worldProvider = pvdr;
 		for (WorldFeature feature : features.values()) {
 			feature.onProviderCreated(pvdr);
@@ -240,10 +388,12 @@ public class SGWorldData implements IWorldData {
 	}
 	
 	public ChunkPosition getGateLocation() {
+		hydrate();
 		return gateLocation;
 	}
 	
 	public void setGateLocation(ChunkPosition gateLocation) {
+		hydrate();
 		this.gateLocation = gateLocation;
 		markDirty();
 	}
@@ -252,21 +402,51 @@ public class SGWorldData implements IWorldData {
 		return "SG_WORLD" + this.dimensionId;
 	}
 	
+	private FeatureSnapshot getFeatureSnapshot() {
+		hydrate();
+		FeatureSnapshot snapshot = featureSnapshot;
+		if (snapshot == null) {
+			snapshot = featureSnapshot = new FeatureSnapshot(features);
+		}
+		return snapshot;
+	}
+	
 	@Override
 	public WorldFeature getFeature(FeatureType type) {
-		List<WorldFeature> tfeats = getFeatures(type);
-		return tfeats.size() > 0 ? tfeats.get(0) : null;
+		return getFeatureSnapshot().first(type);
 	}
 	
+	/**
+	 * @return An unmodifiable list of the features of the type. It is shared, not a copy.
+	 */
 	@Override
 	public List<WorldFeature> getFeatures(FeatureType type) {
-		if (type == FeatureType.ALL) return new ArrayList<WorldFeature>(features.values());
-		return new ArrayList<WorldFeature>(features.get(type));
+		return getFeatureSnapshot().lists[type.ordinal()];
+	}
+	
+	@Override
+	public WorldFeature[] getFeatureArray(FeatureType type) {
+		return getFeatureSnapshot().arrays[type.ordinal()];
+	}
+	
+	@Override
+	public ITerrainGenerator getTerrainGenerator() {
+		return getFeatureSnapshot().terrainGenerator;
+	}
+	
+	@Override
+	public IBiomeController getBiomeController() {
+		return getFeatureSnapshot().biomeController;
+	}
+	
+	@Override
+	public IWeatherController getWeatherController() {
+		return getFeatureSnapshot().weatherController;
 	}
 
 	@Override
 	public boolean hasFeatureIdentifier(String identifier) {
-		for (WorldFeature feature : features.values()) {
+		for (WorldFeature feature : getFeatureArray(FeatureType.ALL)) {
 			if (feature.getProvider().identifier.equals(identifier)) {
 				return true;
 			}
@@ -275,7 +455,13 @@ public class SGWorldData implements IWorldData {
 	}
 	
 	private void addFeature(WorldFeature feature) {
-		this.features.put(feature.getType(), feature);
+		putFeature(this.features, feature);
+		featureSnapshot = null;
+		markDirty();
+	}
+	
+	private static void putFeature(Multimap<FeatureType, WorldFeature> features, WorldFeature feature) {
+		features.put(feature.getType(), feature);
 		
 		List<FeatureType> secondaryTypes = new ArrayList<FeatureType>();
 		feature.getSecondaryTypes(secondaryTypes);
@@ -285,26 +471,38 @@ public class SGWorldData implements IWorldData {
 				throw new IllegalArgumentException(String.format("The class \"%s\" tried to register \"%s\" (a singleton feature type) as a secondary feature type.",
 						feature.getClass().getName(), stype.name()));
 			}
-			this.features.put(stype, feature);
+			features.put(stype, feature);
 		}
-		
-		markDirty();
 	}
 	
 	private static File getWorldDataFile(String fname) {
 		return SGWorlds.getSaveFile("SGWorlds/world_"+fname);
 	}
 	
+	/**
+	 * Writes this world's data to disk if it has changed since it was last saved or loaded.<br/>
+	 * The data is written to a temporary file that is then renamed over the old one, so a crash mid-save can't leave a
+	 * truncated file behind. A stub has nothing to write; its record stays in the catalog.
+	 */
 	public void saveData() {
+		if (!dirty || !isHydrated()) return;
 		try {
 			File wdloc = getWorldDataFile(designation);
 
 			if (wdloc != null) {
 				NBTTagCompound nbttagcompound = new NBTTagCompound();
 				this.writeToNBT(nbttagcompound);
-				FileOutputStream fileoutputstream = new FileOutputStream(wdloc);
+				File tmpFile = new File(wdloc.getPath() + "_new");
+				FileOutputStream fileoutputstream = new FileOutputStream(tmpFile);
 				CompressedStreamTools.writeCompressed(nbttagcompound, fileoutputstream);
 				fileoutputstream.close();
+
+				if (!tmpFile.renameTo(wdloc)) {
+					// Some platforms won't rename over an existing file
+					wdloc.delete();
+					if (!tmpFile.renameTo(wdloc)) throw new IOException("Could not move " + tmpFile + " to " + wdloc);
+				}
+				dirty = false;
 			}
 			
 		} catch (Exception exception) {
@@ -326,16 +524,31 @@ public class SGWorldData implements IWorldData {
 		}
 	}
 	
-	public static SGWorldData generateRandom() {
-		SGWorldData sgd = new SGWorldData(WorldDataGenerator.getRandomDesignation(), WorldDataGenerator.generateAddress());
-		sgd.seed = (new Random()).nextLong();
-		
-		for (WorldFeature feat : WorldDataGenerator.generateRandomFeatures(sgd).values()) {
-			sgd.addFeature(feat);
-		}
+	/**
+	 * Generates the world of one stream of a catalog seed, in the same way as the worlds generated at startup.
+	 */
+	public static SGWorldData generateRandom(long catalogSeed, int index) {
+		long streamSeed = WorldDataGenerator.splitSeed(catalogSeed, index);
+		SGWorldData sgd = createRandom(new Random(streamSeed));
+		sgd.generateFeatures(new Random(WorldDataGenerator.splitSeed(streamSeed, 0)));
 		return sgd;
 	}
 	
+	/**
+	 * Creates a world with a random (reserved) designation, address and seed, but no features.
+	 */
+	static SGWorldData createRandom(Random rand) {
+		SGWorldData sgd = new SGWorldData(WorldDataGenerator.getRandomDesignation(rand), WorldDataGenerator.generateAddress(rand));
+		sgd.seed = rand.nextLong();
+		return sgd;
+	}
+	
+	void generateFeatures(Random rand) {
+		for (WorldFeature feat : WorldDataGenerator.generateRandomFeatures(this, rand).values()) {
+			addFeature(feat);
+		}
+	}
+	
 	public static SGWorldData fromStaticWorld(IStaticWorld sworld) {
 		SGWorldData sgd = new SGWorldData(sworld.getDesignation(), sworld.getAddress());
 		sgd.seed = sworld.getSeed();
@@ -2,26 +2,36 @@ package ml.sgworlds.world;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import ml.core.util.RandomUtils;
 import ml.sgworlds.Registry;
 import ml.sgworlds.SGWorlds;
 import ml.sgworlds.api.world.IGateTempleGenerator;
 import ml.sgworlds.api.world.IStaticWorld;
 import ml.sgworlds.network.packet.PacketRegisterDimensions;
 import ml.sgworlds.network.packet.PacketWorldData;
-import ml.sgworlds.world.gen.temples.TemplePlain;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.server.MinecraftServer;
-import net.minecraft.world.ChunkCoordIntPair;
-import net.minecraft.world.ChunkPosition;
-import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.common.ForgeChunkManager;
 import stargatetech2.api.StargateTechAPI;
@@ -36,37 +46,57 @@ public class SGWorldManager implements IDynamicWorldLoader {
 	public static SGWorldManager instance;
 	public static final Set<IStaticWorld> staticWorlds = new HashSet<IStaticWorld>();
 	public static final List<IGateTempleGenerator> templeGens = new ArrayList<IGateTempleGenerator>();
-	public final List<SGWorldData> worlds = new ArrayList<SGWorldData>();
 	public final List<Integer> registeredDims = new ArrayList<Integer>();
+
+	/*
+	 * The world list is copy-on-write and the indexes are concurrent maps so that network and world gen threads can
+	 * read them without locking. Writes (registering, re-indexing) are rare and lock the manager; a stub hydrated on
+	 * another thread re-indexes from there.
+	 */
+	private final List<SGWorldData> worldList = new CopyOnWriteArrayList<SGWorldData>();
+	public final List<SGWorldData> worlds = Collections.unmodifiableList(worldList);
+	private final ConcurrentMap<String, SGWorldData> addressIndex = new ConcurrentHashMap<String, SGWorldData>();
+	private final ConcurrentMap<Integer, SGWorldData> dimensionIndex = new ConcurrentHashMap<Integer, SGWorldData>();
+	private final ConcurrentMap<String, SGWorldData> designationIndex = new ConcurrentHashMap<String, SGWorldData>();
+	/** The keys each registered world is indexed under, so stale entries are removed without scanning the indexes. */
+	private final Map<SGWorldData, IndexKeys> indexedKeys = new HashMap<SGWorldData, IndexKeys>();
+
+	private final WorldCatalog catalog = new WorldCatalog(SGWorlds.getSaveFile("SGWorlds/catalog"));
+	private int lastSaveTick = -1;
+	private final Map<SGWorldData, WorldLoadTask> loadTasks = new HashMap<SGWorldData, WorldLoadTask>();
 	
-	private Random rand = new Random();
+	/**
+	 * Addresses are keyed by their string form, which lists every symbol, rather than relying on {@link Address} hashing.
+	 */
+	private static String addressKey(Address address) {
+		return address.toString();
+	}
 	
-	public SGWorldData getWorldData(Address address) {
-		for (SGWorldData data : worlds) {
-			if (data.getPrimaryAddress().equals(address)) {
-				return data;
-			}
+	private static class IndexKeys {
+		final String address;
+		final Integer dimension;
+		final String designation;
+		
+		IndexKeys(SGWorldData worldData) {
+			this.address = worldData.getPrimaryAddress() != null ? addressKey(worldData.getPrimaryAddress()) : null;
+			this.dimension = worldData.getDimensionId() != 0 ? worldData.getDimensionId() : null;
+			this.designation = worldData.getDesignation();
 		}
-		return null;
+	}
+	
+	public SGWorldData getWorldData(Address address) {
+		if (address == null) return null;
+		return addressIndex.get(addressKey(address));
 	}
 	
 	public SGWorldData getWorldData(int dimId) {
 		if (dimId == 0) return null;
-		for (SGWorldData data : worlds) {
-			if (data.getDimensionId() == dimId) {
-				return data;
-			}
-		}
-		return null;
+		return dimensionIndex.get(dimId);
 	}
 	
 	public SGWorldData getWorldData(String designation) {
-		for (SGWorldData data : worlds) {
-			if (designation.equals(data.getDesignation())) {
-				return data;
-			}
-		}
-		return null;
+		if (designation == null) return null;
+		return designationIndex.get(designation);
 	}
 	
 	public SGWorldData getClientWorldData(int dimId) {
@@ -75,15 +105,14 @@ public class SGWorldManager implements IDynamicWorldLoader {
 			worldData = new SGWorldData("CLIENT", null); // TODO Default Data?
 			worldData.fillFeatures(true);
 			worldData.setDimensionId(dimId);
-			worlds.add(worldData);
+			addWorld(worldData);
 			new PacketWorldData(dimId).dispatchToServer();
 		}
 		return worldData;
 	}
 	
 	public void addClientData(SGWorldData worldData) {
-		if (worlds.contains(worldData)) return;
-		worlds.add(worldData);
+		addWorld(worldData);
 	}
 	
 	public Collection<SGWorldData> getSGWorlds() {
@@ -91,8 +120,7 @@ public class SGWorldManager implements IDynamicWorldLoader {
 	}
 
 	public void registerSGWorld(SGWorldData worldData) {
-		if (worlds.contains(worldData)) return;
-		worlds.add(worldData);
+		if (!addWorld(worldData)) return;
 		
 		Address addr = worldData.getPrimaryAddress();
 		Symbol[] pfx = new Symbol[3];
@@ -102,6 +130,56 @@ public class SGWorldManager implements IDynamicWorldLoader {
 		StargateTechAPI.api().getStargateNetwork().reserveDimensionPrefix(this, pfx);
 	}
 	
+	public synchronized void unregisterSGWorld(SGWorldData worldData) {
+		if (worldList.remove(worldData)) {
+			unindex(worldData);
+		}
+	}
+	
+	private synchronized boolean addWorld(SGWorldData worldData) {
+		if (indexedKeys.containsKey(worldData)) return false;
+		worldList.add(worldData);
+		index(worldData);
+		return true;
+	}
+	
+	/**
+	 * Refreshes the indexes of a world after its designation, address or dimension changed.
+	 */
+	public synchronized void reindex(SGWorldData worldData) {
+		IndexKeys old = indexedKeys.get(worldData);
+		if (old == null) return;
+		// The new keys go in before the stale ones come out, so lookups never miss the world in between.
+		IndexKeys keys = index(worldData);
+		removeStale(addressIndex, worldData, old.address, keys.address);
+		removeStale(dimensionIndex, worldData, old.dimension, keys.dimension);
+		removeStale(designationIndex, worldData, old.designation, keys.designation);
+	}
+	
+	/**
+	 * Removes the world's entry under its old key, unless that is still its key. An entry that now maps to another world is left alone.
+	 */
+	private static <K> void removeStale(ConcurrentMap<K, SGWorldData> index, SGWorldData worldData, K old, K current) {
+		if (old != null && !old.equals(current)) index.remove(old, worldData);
+	}
+	
+	private IndexKeys index(SGWorldData worldData) {
+		IndexKeys keys = new IndexKeys(worldData);
+		if (keys.address != null) addressIndex.put(keys.address, worldData);
+		if (keys.dimension != null) dimensionIndex.put(keys.dimension, worldData);
+		if (keys.designation != null) designationIndex.put(keys.designation, worldData);
+		indexedKeys.put(worldData, keys);
+		return keys;
+	}
+	
+	private void unindex(SGWorldData worldData) {
+		IndexKeys keys = indexedKeys.remove(worldData);
+		if (keys == null) return;
+		removeStale(addressIndex, worldData, keys.address, null);
+		removeStale(dimensionIndex, worldData, keys.dimension, null);
+		removeStale(designationIndex, worldData, keys.designation, null);
+	}
+	
 	public void registerDimension(int dimId) {
 		if (registeredDims.contains(dimId)) return;
 		registeredDims.add(dimId);
@@ -130,123 +208,289 @@ public class SGWorldManager implements IDynamicWorldLoader {
 	
 	@Override
 	public boolean willCreateWorldFor(Address address) {
-		return getWorldData(address) != null;
+		SGWorldData worldData = getWorldData(address);
+		return worldData != null && worldData.hydrate();
 	}
 
+	/**
+	 * Starts bringing up the world as a {@link WorldLoadTask} spread over several ticks.<br/>
+	 * The dialing gate gets a short blocking slice of the job on each dial. The dial can't be held open past that, so if
+	 * the job isn't done the dial finds no gate and fails. The job carries on in the background and places the gate
+	 * when it's done; later dials attach to the running job, and the first one after it finishes connects.
+	 */
 	@Override
 	public void loadWorldFor(Address address, IStargatePlacer seedingShip) {
 		SGWorldData worldData = getWorldData(address);
 		try {
-			System.out.println(worldData);
-			if (worldData != null) {
-				worldData.setDimensionId(DimensionManager.getNextFreeDimId());
-				worldData.markDirty();
-				
-				DimensionManager.registerDimension(worldData.getDimensionId(), Registry.config.worldProviderId);
-				registeredDims.add(worldData.getDimensionId());
-				new PacketRegisterDimensions(worldData.getDimensionId()).dispatchToAll();
-				
-				WorldServer world = MinecraftServer.getServer().worldServerForDimension(worldData.getDimensionId());
-				
-				// Gate Spawning
-				IGateTempleGenerator templeGenerator = null;
-				
-				for (IStaticWorld sWorld : staticWorlds) {
-					if (address.equals(sWorld.getAddress())) {
-						templeGenerator = sWorld.getTempleGenerator(world);
-						break;
+			if (worldData != null && worldData.hydrate()) {
+				WorldLoadTask task = loadTasks.get(worldData);
+				if (task == null) {
+					if (worldData.getDimensionId() == 0) {
+						worldData.setDimensionId(DimensionManager.getNextFreeDimId());
+						worldData.markDirty();
 					}
-				}
-				
-				if (templeGenerator == null) {
-					Collections.shuffle(templeGens);
-					for (IGateTempleGenerator temple : templeGens) {
-						if (temple.getGateCoords(world, 0) != null) {
-							templeGenerator = temple;
-							break;
-						}
-					}
-				}
-				
-				if (templeGenerator == null) templeGenerator = new TemplePlain();
-				
-				int gateRotation = 0;
-				ChunkPosition gateCoords = templeGenerator.getGateCoords(world, gateRotation);
-				ChunkCoordIntPair gateChunkCoords = new ChunkCoordIntPair(gateCoords.x >> 4, gateCoords.z >> 4);
-				GenEventHandler.gateChunkCoords = gateChunkCoords;
-				for (int cX=-5; cX<=5; cX++) {
-					for (int cZ=-5; cZ<=5; cZ++) {
-						world.getChunkFromChunkCoords(cX+gateChunkCoords.chunkXPos, cZ+gateChunkCoords.chunkZPos);
-					}	
+
+					registerDimension(worldData.getDimensionId());
+					new PacketRegisterDimensions(worldData.getDimensionId()).dispatchToAll();
+
+					task = new WorldLoadTask(worldData, seedingShip);
+					loadTasks.put(worldData, task);
+					TickTaskScheduler.instance.schedule(task);
 				}
 
-				gateCoords = templeGenerator.getGateCoords(world, gateRotation);
-				templeGenerator.generateGateTemple(world, gateCoords, gateRotation);
-					
-				if (gateCoords == null) gateCoords = new ChunkPosition(0, 200, 0); // This code should NEVER be run.
-				boolean nsr = gateRotation==0 || gateRotation==2;
-				for (int y=0; y<5; y++) {
-					for (int x=-2; x<=2; x++) {
-						world.setBlock(gateCoords.x + (nsr ? x : 0), gateCoords.y + y, gateCoords.z + (nsr ? 0 : x), 0);
-					}
+				// Let the dialing gate wait a little; small worlds are often done right here.
+				if (task.runSlice(System.nanoTime() + Registry.config.worldLoadDialBudgetMs * 1000000L)) {
+					TickTaskScheduler.instance.remove(task);
 				}
-				seedingShip.placeStargate(world, gateCoords.x, gateCoords.y, gateCoords.z, gateRotation);
-				
-				worldData.setGateLocation(gateCoords);
+				if (task.isDone()) loadTasks.remove(worldData);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
-	
+
+	/**
+	 * Saves every world that changed. A save is triggered for each loaded dimension, so repeated calls in the same tick
+	 * are ignored.
+	 */
 	public void saveData() {
-		File wmFile = SGWorlds.getSaveFile("SGWorlds");
-		for (SGWorldData worldData : worlds) {
-			worldData.saveData();
-		}
+		int tick = MinecraftServer.getServer().getTickCounter();
+		if (tick == lastSaveTick) return;
+		lastSaveTick = tick;
 		
-		try {
-			FileOutputStream fileoutputstream = new FileOutputStream(wmFile);
-			fileoutputstream.close();
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (Registry.config.packedWorldCatalog) {
+			try {
+				catalog.save(worlds);
+			} catch (IOException e) {
+				FMLLog.severe("Could not save the SGWorlds catalog! (%s)", e.getMessage());
+				e.printStackTrace();
+			}
+		} else {
+			for (SGWorldData worldData : worlds) {
+				worldData.saveData();
+			}
 		}
 		
+		File wmFile = SGWorlds.getSaveFile("SGWorlds");
+		if (!wmFile.exists()) {
+			try {
+				FileOutputStream fileoutputstream = new FileOutputStream(wmFile);
+				fileoutputstream.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
+	/**
+	 * Loads or, on the first start, generates the worlds. The expensive per-world work (feature generation, reading
+	 * per-world files) is spread over a worker pool; the manager is only published once every world is registered.
+	 */
 	public static void loadData() {
 		File wmFile = SGWorlds.getSaveFile("SGWorlds");
 		File wdDir = SGWorlds.getSaveFile("SGWorlds/fake").getParentFile();
 		wdDir.mkdirs();
 		
-		instance = new SGWorldManager();
+		SGWorldManager manager = new SGWorldManager();
+		WorldDataGenerator.clearReservations();
 		
 		if (!wmFile.exists()) {
-			int genCount = Registry.config.numberWorldsToGenerate + RandomUtils.randomInt(Registry.config.numberWorldsToGenerateRandom+1);
+			long catalogSeed = WorldDataGenerator.getCatalogSeed();
+			Random countRand = new Random(WorldDataGenerator.splitSeed(catalogSeed, -1));
+			int genCount = Registry.config.numberWorldsToGenerate + countRand.nextInt(Registry.config.numberWorldsToGenerateRandom+1);
+			FMLLog.info("[SGWorlds] Generating %d worlds from catalog seed %d", genCount, catalogSeed);
 			
-			for (int i=0; i < genCount; i++) {
-				instance.registerSGWorld(SGWorldData.generateRandom());
+			for (SGWorldData worldData : generateWorlds(genCount, catalogSeed)) {
+				manager.registerSGWorld(worldData);
 			}
 			
-			for (IStaticWorld staticWorld : instance.staticWorlds) {
-				instance.registerSGWorld(SGWorldData.fromStaticWorld(staticWorld));
+			for (IStaticWorld staticWorld : staticWorlds) {
+				manager.registerSGWorld(SGWorldData.fromStaticWorld(staticWorld));
 			}
 			
 		} else {
+			// Per-world files always win over the catalog, whether they are left over from a migration or were saved after
+			// switching back to them. Files that can't be read are kept and tried again on the next start.
+			Map<String, SGWorldData> stubs = manager.catalog.exists() ? manager.loadCatalog() : new LinkedHashMap<String, SGWorldData>();
+			
+			List<String> names = new ArrayList<String>();
 			for (String name : wdDir.list()) {
-				if (name.startsWith("world_") && name.endsWith(".dat")) {
-					String designation = name.substring(6, name.length()-4);
-					
-					try {
-						SGWorldData worldData = SGWorldData.loadData(designation);
-						instance.registerSGWorld(worldData);
-					} catch (Exception e) {
-						FMLLog.severe("The world \"%s\" could not be loaded! (%s)", designation, e.getMessage());
-						//e.printStackTrace();
+				if (name.startsWith("world_") && name.endsWith(".dat")) names.add(name);
+			}
+			Collections.sort(names);
+			
+			List<Callable<SGWorldData>> jobs = new ArrayList<Callable<SGWorldData>>();
+			for (String name : names) {
+				final String designation = name.substring(6, name.length()-4);
+				stubs.remove(designation);
+				jobs.add(new Callable<SGWorldData>() {
+					@Override
+					public SGWorldData call() {
+						try {
+							return SGWorldData.loadData(designation);
+						} catch (Exception e) {
+							FMLLog.severe("The world \"%s\" could not be loaded! (%s)", designation, e.getMessage());
+							return null;
+						}
 					}
+				});
+			}
+			
+			for (SGWorldData stub : stubs.values()) {
+				manager.registerSGWorld(stub);
+			}
+			
+			List<File> loadedFiles = new ArrayList<File>();
+			List<SGWorldData> loaded = runParallel(jobs);
+			for (int i=0; i<names.size(); i++) {
+				if (loaded.get(i) == null) continue;
+				manager.registerSGWorld(loaded.get(i));
+				loadedFiles.add(new File(wdDir, names.get(i)));
+			}
+			
+			if (Registry.config.packedWorldCatalog) {
+				if (!loadedFiles.isEmpty()) manager.packWorldFiles(loadedFiles);
+			} else if (manager.catalog.exists()) {
+				manager.unpackCatalog(stubs.values());
+			}
+		}
+		
+		instance = manager;
+	}
+	
+	/**
+	 * Generates random worlds. Each world gets its own random stream split off the catalog seed by index, so the
+	 * result doesn't depend on the number of threads. Identifiers are drawn on this thread in index order, which keeps
+	 * collision handling independent of thread timing; the features are then generated in parallel.
+	 */
+	private static List<SGWorldData> generateWorlds(int count, long catalogSeed) {
+		List<Callable<SGWorldData>> jobs = new ArrayList<Callable<SGWorldData>>();
+		for (int i=0; i < count; i++) {
+			long streamSeed = WorldDataGenerator.splitSeed(catalogSeed, i);
+			final SGWorldData worldData = SGWorldData.createRandom(new Random(streamSeed));
+			final long featureSeed = WorldDataGenerator.splitSeed(streamSeed, 0);
+			jobs.add(new Callable<SGWorldData>() {
+				@Override
+				public SGWorldData call() {
+					worldData.generateFeatures(new Random(featureSeed));
+					return worldData;
 				}
+			});
+		}
+		return runParallel(jobs);
+	}
+	
+	/**
+	 * Runs the jobs on a temporary pool with a thread per core.
+	 * @return The results, in the same order as the jobs.
+	 */
+	private static <T> List<T> runParallel(List<Callable<T>> jobs) {
+		if (jobs.isEmpty()) return new ArrayList<T>();
+		
+		int threads = Math.min(jobs.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SGWorlds Loader #" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
 			}
+		});
+		
+		try {
+			List<T> results = new ArrayList<T>(jobs.size());
+			for (Future<T> future : pool.invokeAll(jobs)) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to load the SGWorlds data", e.getCause());
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while loading the SGWorlds data", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Moves the worlds loaded from per-world files into the catalog, then deletes the files.
+	 */
+	private void packWorldFiles(List<File> files) {
+		// At this point the only hydrated worlds are the ones read from files; the stubs' records are already in the catalog.
+		for (SGWorldData worldData : worlds) {
+			if (worldData.isHydrated()) worldData.markDirty();
+		}
+		
+		try {
+			catalog.save(worlds);
+		} catch (IOException e) {
+			FMLLog.severe("Could not migrate the SGWorlds data into a catalog! (%s)", e.getMessage());
+			return;
 		}
 		
+		for (File file : files) {
+			if (!file.delete()) FMLLog.warning("[SGWorlds] Could not delete %s after moving it into the catalog", file.getName());
+		}
+		FMLLog.info("[SGWorlds] Migrated %d worlds into %s", files.size(), catalog.getFile().getName());
+	}
+	
+	/**
+	 * Writes each catalog record out to its own file. Records that can't be read or written are kept in the catalog and
+	 * tried again on the next start, and the catalog is deleted once it is empty.
+	 */
+	private void unpackCatalog(Collection<SGWorldData> stubs) {
+		List<SGWorldData> kept = new ArrayList<SGWorldData>();
+		for (SGWorldData worldData : stubs) {
+			if (worldData.hydrate()) {
+				worldData.markDirty();
+				worldData.saveData();
+			}
+			// A world that is still dirty didn't make it to its file.
+			if (!worldData.isHydrated() || worldData.isDirty()) kept.add(worldData);
+		}
+		
+		if (kept.isEmpty()) {
+			catalog.getFile().delete();
+			return;
+		}
+		try {
+			catalog.save(kept);
+			FMLLog.warning("[SGWorlds] Kept %d worlds that could not be unpacked in %s", kept.size(), catalog.getFile().getName());
+		} catch (IOException e) {
+			FMLLog.severe("Could not save the SGWorlds catalog! (%s)", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Reads the catalog's index.
+	 * @return A stub for each world, by designation, in catalog order.
+	 */
+	private Map<String, SGWorldData> loadCatalog() {
+		try {
+			catalog.load();
+		} catch (IOException e) {
+			throw new RuntimeException(String.format("The SGWorlds catalog could not be read! (%s)", e.getMessage()), e);
+		}
+		
+		// Worlds start out as stubs built from the index; their records are only inflated when first used.
+		SGWorldData.IRecordSource source = new SGWorldData.IRecordSource() {
+			@Override
+			public NBTTagCompound loadRecord(String designation) throws IOException {
+				return catalog.readRecord(designation);
+			}
+		};
+		
+		Map<String, SGWorldData> stubs = new LinkedHashMap<String, SGWorldData>();
+		for (WorldCatalog.Entry entry : catalog.getEntries()) {
+			try {
+				Address address = entry.address.length() > 0 ? StargateTechAPI.api().getStargateNetwork().parseAddress(entry.address) : null;
+				stubs.put(entry.designation, SGWorldData.createStub(entry.designation, address, entry.dimensionId, entry.seed, source));
+			} catch (Exception e) {
+				FMLLog.severe("The world \"%s\" could not be loaded! (%s)", entry.designation, e.getMessage());
+			}
+		}
+		return stubs;
 	}
 }
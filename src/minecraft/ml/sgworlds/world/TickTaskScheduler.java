@@ -0,0 +1,97 @@
+package ml.sgworlds.world;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import cpw.mods.fml.common.FMLLog;
+import cpw.mods.fml.common.ITickHandler;
+import cpw.mods.fml.common.TickType;
+
+/**
+ * Runs long server-side jobs a slice at a time at the end of each server tick.<br/>
+ * Every task is given its own time budget each tick so one long job can't starve the others.
+ */
+public class TickTaskScheduler implements ITickHandler {
+
+	public static final TickTaskScheduler instance = new TickTaskScheduler();
+
+	/**
+	 * A job that is run over several ticks.
+	 */
+	public static interface ITickTask {
+		/**
+		 * @return The number of nanoseconds this task may use per tick.
+		 */
+		public long getTickBudget();
+
+		/**
+		 * Does as much work as fits before the deadline (a {@link System#nanoTime()} value).
+		 * @return True once the task is finished and should be removed.
+		 */
+		public boolean runSlice(long deadline);
+
+		/**
+		 * Called if the task is removed before it finishes, e.g. when the server stops.
+		 */
+		public void cancel();
+	}
+
+	private final List<ITickTask> tasks = new ArrayList<ITickTask>();
+
+	private TickTaskScheduler() {}
+
+	public void schedule(ITickTask task) {
+		if (!tasks.contains(task)) tasks.add(task);
+	}
+
+	public void remove(ITickTask task) {
+		if (tasks.remove(task)) task.cancel();
+	}
+
+	public List<ITickTask> getTasks() {
+		return tasks;
+	}
+
+	/**
+	 * Cancels all pending tasks.
+	 */
+	public void clear() {
+		for (ITickTask task : new ArrayList<ITickTask>(tasks)) {
+			task.cancel();
+		}
+		tasks.clear();
+	}
+
+	@Override
+	public void tickStart(EnumSet<TickType> type, Object... tickData) {}
+
+	@Override
+	public void tickEnd(EnumSet<TickType> type, Object... tickData) {
+		if (tasks.isEmpty()) return;
+
+		// Copy so tasks may schedule other tasks while running
+		for (ITickTask task : new ArrayList<ITickTask>(tasks)) {
+			boolean done;
+			try {
+				done = task.runSlice(System.nanoTime() + task.getTickBudget());
+			} catch (RuntimeException e) {
+				FMLLog.severe("A SGWorlds tick task (%s) failed and was removed: %s", task, e);
+				e.printStackTrace();
+				done = true;
+			}
+			if (done) tasks.remove(task);
+		}
+	}
+
+	@Override
+	public EnumSet<TickType> ticks() {
+		return EnumSet.of(TickType.SERVER);
+	}
+
+	@Override
+	public String getLabel() {
+		return "SGWorlds Tick Tasks";
+	}
+
+}
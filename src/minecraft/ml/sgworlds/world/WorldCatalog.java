@@ -0,0 +1,206 @@
+package ml.sgworlds.world;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Every SG world's data packed into a single file.<br/>
+ * The file starts with an index listing each world's designation, address, dimension and seed along with where its
+ * record is, followed by the records themselves, each a separately compressed NBT compound. The index can be read on
+ * its own and records are only inflated when asked for.
+ */
+public class WorldCatalog {
+
+	private static final int MAGIC = 0x53475743; // "SGWC"
+	private static final int VERSION = 1;
+
+	public static class Entry {
+		public final String designation;
+		public final String address;
+		public final int dimensionId;
+		public final long seed;
+		private final long offset;
+		private final int length;
+
+		private Entry(String designation, String address, int dimensionId, long seed, long offset, int length) {
+			this.designation = designation;
+			this.address = address;
+			this.dimensionId = dimensionId;
+			this.seed = seed;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+	private final Map<String, Entry> index = new LinkedHashMap<String, Entry>();
+	private long dataStart;
+
+	public WorldCatalog(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean exists() {
+		return file.exists();
+	}
+
+	/**
+	 * Reads the index. Records are left alone until {@link #readRecord(String)}.
+	 */
+	public synchronized void load() throws IOException {
+		index.clear();
+		CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+		DataInputStream in = new DataInputStream(counter);
+		try {
+			if (in.readInt() != MAGIC) throw new IOException("Not a SGWorlds catalog: " + file);
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException(String.format("Unknown catalog version %d in %s", version, file));
+
+			int count = in.readInt();
+			for (int i=0; i<count; i++) {
+				String designation = in.readUTF();
+				String address = in.readUTF();
+				int dim = in.readInt();
+				long seed = in.readLong();
+				long offset = in.readLong();
+				int length = in.readInt();
+				index.put(designation, new Entry(designation, address, dim, seed, offset, length));
+			}
+			dataStart = counter.getCount();
+		} finally {
+			in.close();
+		}
+	}
+
+	public synchronized Collection<Entry> getEntries() {
+		return Collections.unmodifiableCollection(new ArrayList<Entry>(index.values()));
+	}
+
+	public synchronized Entry getEntry(String designation) {
+		return index.get(designation);
+	}
+
+	/**
+	 * Inflates a single world's record.
+	 * @return The record, or null if the catalog has no such world.
+	 */
+	public synchronized NBTTagCompound readRecord(String designation) throws IOException {
+		Entry entry = index.get(designation);
+		if (entry == null) return null;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return CompressedStreamTools.decompress(readRaw(raf, entry));
+		} finally {
+			raf.close();
+		}
+	}
+
+	private byte[] readRaw(RandomAccessFile raf, Entry entry) throws IOException {
+		byte[] data = new byte[entry.length];
+		raf.seek(dataStart + entry.offset);
+		raf.readFully(data);
+		return data;
+	}
+
+	/**
+	 * Rewrites the catalog if any world changed. Records of unchanged worlds, and of stubs whose record was never
+	 * inflated, are copied over as they are. A stub's changes are all in the index entry.
+	 * The new catalog is written to a temporary file that then replaces the old one.
+	 * @return True if the catalog was written.
+	 */
+	public synchronized boolean save(Collection<SGWorldData> worlds) throws IOException {
+		boolean changed = worlds.size() != index.size() || !exists();
+		for (SGWorldData worldData : worlds) {
+			if (worldData.isDirty() || !index.containsKey(worldData.getDesignation())) changed = true;
+		}
+		if (!changed) return false;
+
+		List<Entry> entries = new ArrayList<Entry>(worlds.size());
+		List<byte[]> records = new ArrayList<byte[]>(worlds.size());
+		RandomAccessFile raf = exists() ? new RandomAccessFile(file, "r") : null;
+		try {
+			long offset = 0;
+			for (SGWorldData worldData : worlds) {
+				Entry old = index.get(worldData.getDesignation());
+				byte[] data;
+				if ((!worldData.isDirty() || !worldData.isHydrated()) && old != null && raf != null) {
+					data = readRaw(raf, old);
+				} else {
+					NBTTagCompound tag = new NBTTagCompound();
+					worldData.writeToNBT(tag);
+					data = CompressedStreamTools.compress(tag);
+				}
+
+				String address = worldData.getPrimaryAddress() != null ? worldData.getPrimaryAddress().toString() : "";
+				entries.add(new Entry(worldData.getDesignation(), address, worldData.getDimensionId(), worldData.getWorldSeed(), offset, data.length));
+				records.add(data);
+				offset += data.length;
+			}
+		} finally {
+			if (raf != null) raf.close();
+		}
+
+		File tmpFile = new File(file.getPath() + "_new");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		long headerSize;
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Entry entry : entries) {
+				out.writeUTF(entry.designation);
+				out.writeUTF(entry.address);
+				out.writeInt(entry.dimensionId);
+				out.writeLong(entry.seed);
+				out.writeLong(entry.offset);
+				out.writeInt(entry.length);
+			}
+			headerSize = out.size();
+			for (byte[] data : records) {
+				out.write(data);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!tmpFile.renameTo(file)) {
+			// Some platforms won't rename over an existing file
+			file.delete();
+			if (!tmpFile.renameTo(file)) throw new IOException("Could not move " + tmpFile + " to " + file);
+		}
+
+		index.clear();
+		for (Entry entry : entries) {
+			index.put(entry.designation, entry);
+		}
+		dataStart = headerSize;
+
+		for (SGWorldData worldData : worlds) {
+			worldData.markClean();
+		}
+		return true;
+	}
+}
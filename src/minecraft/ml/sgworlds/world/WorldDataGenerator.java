@@ -2,23 +2,24 @@ package ml.sgworlds.world;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import ml.sgworlds.Registry;
 import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureProvider;
 import ml.sgworlds.api.world.feature.FeatureType;
 import ml.sgworlds.api.world.feature.WorldFeature;
 import ml.sgworlds.world.feature.FeatureManager;
-import net.minecraft.util.WeightedRandom;
-import net.minecraft.util.WeightedRandomItem;
+import ml.sgworlds.world.feature.FeatureSelector;
 import stargatetech2.api.StargateTechAPI;
 import stargatetech2.api.stargate.Address;
 import stargatetech2.api.stargate.IStargateNetwork;
 import stargatetech2.api.stargate.Symbol;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 
@@ -28,38 +29,49 @@ import com.google.common.collect.Multimap;
  */
 public class WorldDataGenerator {
 
-	private static BiMap<FeatureProvider, WeightedRandomFeature> mapFeatureWeights(List<FeatureProvider> providers) {
-		BiMap<FeatureProvider, WeightedRandomFeature> map = HashBiMap.create();
-		for (FeatureProvider provider : providers) {
-			if (!provider.independent) {
-				map.put(provider, new WeightedRandomFeature(provider.getWeight(), provider));
-			}
+	/*
+	 * Identifiers handed out but possibly not registered yet, so concurrent generators never hand out the same one.
+	 */
+	private static final Set<String> reservedDesignations = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static final Set<String> reservedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static final Set<String> reservedPrefixes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * @return The configured catalog seed, or a fresh random one if none is set. Numbers are used as-is, anything
+	 * else is hashed, like the vanilla world seed.
+	 */
+	public static long getCatalogSeed() {
+		String seed = Registry.config.catalogSeed == null ? "" : Registry.config.catalogSeed.trim();
+		if (seed.length() == 0) return new Random().nextLong();
+		try {
+			return Long.parseLong(seed);
+		} catch (NumberFormatException e) {
+			return seed.hashCode();
 		}
-		return map;
 	}
 
-	private static List<FeatureProvider> getIndependentProviders(List<FeatureProvider> providers) {
-		List<FeatureProvider> indeps = new ArrayList<FeatureProvider>();
-		for (FeatureProvider provider : providers) {
-			if (provider.independent) {
-				indeps.add(provider);
-			}
-		}
-		return indeps;
+	/**
+	 * Derives an independent seed for one stream (e.g. one world) from a parent seed, using the SplitMix64 mixer.
+	 * The result depends only on the two arguments, so streams can be handed to any thread in any order.
+	 */
+	public static long splitSeed(long seed, long stream) {
+		long z = seed + (stream + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
 	}
 
-	private static boolean checkCompatible(IWorldData worldDataGen, FeatureProvider provider) {
-		for (WorldFeature ofeature : worldDataGen.getFeatures(provider.type)) {
-			FeatureProvider oProvider = ofeature.getProvider();
-			if (!provider.compatibleWith(oProvider) || !oProvider.compatibleWith(provider)) {
-				return false;
-			}
-		}
-		return true;
+	/**
+	 * Forgets all reserved identifiers. Called when a new set of worlds is loaded.
+	 */
+	public static void clearReservations() {
+		reservedDesignations.clear();
+		reservedAddresses.clear();
+		reservedPrefixes.clear();
 	}
 
-	private static WorldFeature generateRandomTypeFeature(FeatureProvider provider, IWorldData worldData, FeatureType type) {
-		WorldFeature feature = provider.generateRandom(worldData, new Random());
+	private static WorldFeature generateRandomTypeFeature(FeatureProvider provider, IWorldData worldData, FeatureType type, Random rand) {
+		WorldFeature feature = provider.generateRandom(worldData, rand);
 
 		if (type.clazz == null || type.clazz.isAssignableFrom(feature.getClass())) {
 			return feature;
@@ -80,28 +92,24 @@ public class WorldDataGenerator {
 	public static List<WorldFeature> generateRandomTypeFeatures(IWorldData worldData, FeatureType type, int count, Random rand) {
 
 		List<WorldFeature> genFeatures = new ArrayList<WorldFeature>();
-		List<FeatureProvider> typeProviders = FeatureManager.instance.getFeatureProviders(type);
-
-		BiMap<FeatureProvider, WeightedRandomFeature> weightedProviders = mapFeatureWeights(typeProviders);
+		FeatureSelector.TypeTable table = FeatureManager.instance.getSelector().getTable(type);
+		long[] allowed = table.getAllowedMask(worldData.getFeatureArray(type));
 
 		// Dependent Features
-		while (count > 0 && weightedProviders.size() > 0) {
-			FeatureProvider provider = ((WeightedRandomFeature)WeightedRandom.getRandomItem(rand, weightedProviders.values())).provider;
-
-			if (!checkCompatible(worldData, provider)) {
-				weightedProviders.remove(provider);
-				continue;
-			}
-
-			genFeatures.add(generateRandomTypeFeature(provider, worldData, type));
+		int[] cumulative = table.getCumulativeWeights(allowed);
+		int totalWeight = cumulative.length > 0 ? cumulative[cumulative.length - 1] : 0;
+		while (count > 0 && totalWeight > 0) {
+			FeatureProvider provider = table.getProvider(table.pick(cumulative, rand.nextInt(totalWeight)));
+			genFeatures.add(generateRandomTypeFeature(provider, worldData, type, rand));
 
 			count--;
 		}
 		
 		// Independent Features
-		for (FeatureProvider provider : getIndependentProviders(typeProviders)) {
-			if (rand.nextInt(100) < provider.getWeight() && checkCompatible(worldData, provider)) {
-				genFeatures.add(generateRandomTypeFeature(provider, worldData, type));
+		for (int index : table.getIndependent()) {
+			FeatureProvider provider = table.getProvider(index);
+			if (rand.nextInt(100) < provider.getWeight() && table.isAllowed(allowed, index)) {
+				genFeatures.add(generateRandomTypeFeature(provider, worldData, type, rand));
 			}
 		}
 
@@ -113,8 +121,14 @@ public class WorldDataGenerator {
 	 * @return The map of {@link WorldFeature}s
 	 */
 	public static Multimap<FeatureType, WorldFeature> generateRandomFeatures(IWorldData worldData) {
-		Random rand = new Random();
+		return generateRandomFeatures(worldData, new Random());
+	}
 
+	/**
+	 * Generates a map of Features for the {@link SGWorldData} from the given {@link Random}, but does NOT add them to the {@link SGWorldData}.
+	 * @return The map of {@link WorldFeature}s
+	 */
+	public static Multimap<FeatureType, WorldFeature> generateRandomFeatures(IWorldData worldData, Random rand) {
 		Multimap<FeatureType, WorldFeature> featureMap = HashMultimap.create();
 		for (FeatureType type : FeatureType.values()) {
 			if (type == FeatureType.ALL) continue;
@@ -132,7 +146,13 @@ public class WorldDataGenerator {
 	 * Generates an options Stargate address and optionally reserves it.
 	 */
 	public static Address generateAddress() {
-		Random random = new Random();
+		return generateAddress(new Random());
+	}
+
+	/**
+	 * Generates an unused Stargate address with an unused prefix and reserves it.
+	 */
+	public static Address generateAddress(Random random) {
 		Symbol[] symbols;
 		Address address;
 		IStargateNetwork sgn = StargateTechAPI.api().getStargateNetwork();
@@ -152,14 +172,31 @@ public class WorldDataGenerator {
 			address = Address.create(symbols);
 		} while(address == null
 				|| sgn.addressExists(address)
-				|| (sgn.prefixExists((Symbol[])Arrays.copyOfRange(symbols, 0, 3))));
+				|| (sgn.prefixExists((Symbol[])Arrays.copyOfRange(symbols, 0, 3)))
+				|| !reserveAddress(address, symbols));
 		return address;
 	}
 
+	private static boolean reserveAddress(Address address, Symbol[] symbols) {
+		String prefix = symbols[0].name() + symbols[1].name() + symbols[2].name();
+		if (!reservedPrefixes.add(prefix)) return false;
+		if (!reservedAddresses.add(address.toString())) {
+			reservedPrefixes.remove(prefix);
+			return false;
+		}
+		return true;
+	}
+
 	public static String getRandomDesignation() {
+		return getRandomDesignation(new Random());
+	}
+
+	/**
+	 * Generates an unused designation and reserves it.
+	 */
+	public static String getRandomDesignation(Random random) {
 		String designation;
 		do {
-			Random random = new Random();
 			StringBuilder sb = new StringBuilder();
 			sb.append("P");
 			sb.append(random.nextInt(9)+1);
@@ -169,16 +206,9 @@ public class WorldDataGenerator {
 			sb.append(random.nextInt(9)+1);
 			sb.append(random.nextInt(9)+1);
 			designation = sb.toString();
-		} while (designation == null || SGWorldManager.instance.getWorldData(designation) != null);
+		} while (designation == null
+				|| (SGWorldManager.instance != null && SGWorldManager.instance.getWorldData(designation) != null)
+				|| !reservedDesignations.add(designation));
 		return designation;
 	}
-
-	private static class WeightedRandomFeature extends WeightedRandomItem {
-		public final FeatureProvider provider;
-		public WeightedRandomFeature(int par1, FeatureProvider provider) {
-			super(par1);
-			this.provider = provider;
-		}
-
-	}
 }
@@ -0,0 +1,206 @@
+package ml.sgworlds.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import ml.sgworlds.Registry;
+import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.api.world.IScoredTempleGenerator;
+import ml.sgworlds.api.world.IStaticWorld;
+import ml.sgworlds.world.TickTaskScheduler.ITickTask;
+import ml.sgworlds.world.dimension.SGChunkManager;
+import ml.sgworlds.world.gen.temples.TemplePlain;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.ChunkPosition;
+import net.minecraft.world.WorldServer;
+import stargatetech2.api.stargate.IStargatePlacer;
+import cpw.mods.fml.common.FMLLog;
+
+/**
+ * Brings up a newly dialed world in stages, a slice each tick: pick a temple and site, load the chunks around it,
+ * build the temple and finally place the gate.
+ */
+public class WorldLoadTask implements ITickTask {
+
+	/**
+	 * Chunks loaded around the gate before the temple is built. A chunk is only populated once the chunks on its +x and +z
+	 * sides exist, so this is one more than the chunks the temple builds in.
+	 */
+	private static final int CHUNK_RADIUS = 5;
+	/** How far around the origin the temples' own site searches scan the biomes. */
+	private static final int TEMPLE_SEARCH_RANGE = 500;
+	/** Bounds the steps spent filling the biome tiles for those searches, in case the cache can't hold them all. */
+	private static final int MAX_BIOME_STEPS = 64;
+
+	private static enum Stage {
+		FIND_SITE, LOAD_CHUNKS, BUILD_TEMPLE, PLACE_GATE, DONE;
+	}
+
+	private final SGWorldData worldData;
+	private final IStargatePlacer seedingShip;
+	private final int gateRotation = 0;
+
+	private Stage stage = Stage.FIND_SITE;
+	private List<IGateTempleGenerator> candidates;
+	private IGateTempleGenerator templeGenerator;
+	private ChunkPosition gateCoords;
+	private int chunkIndex;
+	private int biomeSteps;
+	private GateSiteSelector siteSelector;
+
+	public WorldLoadTask(SGWorldData worldData, IStargatePlacer seedingShip) {
+		this.worldData = worldData;
+		this.seedingShip = seedingShip;
+	}
+
+	public SGWorldData getWorldData() {
+		return worldData;
+	}
+
+	public boolean isDone() {
+		return stage == Stage.DONE;
+	}
+
+	@Override
+	public long getTickBudget() {
+		return Registry.config.worldLoadTickBudgetMs * 1000000L;
+	}
+
+	@Override
+	public boolean runSlice(long deadline) {
+		WorldServer world = MinecraftServer.getServer().worldServerForDimension(worldData.getDimensionId());
+
+		do {
+			switch (stage) {
+			case FIND_SITE:
+				if (!findSite(world, deadline)) return false;
+				break;
+			case LOAD_CHUNKS:
+				loadChunk(world);
+				break;
+			case BUILD_TEMPLE:
+				buildTemple(world);
+				break;
+			case PLACE_GATE:
+				placeGate(world);
+				break;
+			case DONE:
+				return true;
+			}
+		} while (System.nanoTime() < deadline);
+
+		return stage == Stage.DONE;
+	}
+
+	/**
+	 * Static worlds bring their own temple. Otherwise the temples that can score sites are weighed against each other on the
+	 * workers, and the rest are only checked, one per call, if none of those found a site. Before any temple searches on its
+	 * own, the biomes of the search area are cached a tile per call.
+	 * @return False if the workers weren't done by the deadline.
+	 */
+	private boolean findSite(WorldServer world, long deadline) {
+		if (candidates == null) {
+			for (IStaticWorld sWorld : SGWorldManager.staticWorlds) {
+				if (worldData.getPrimaryAddress().equals(sWorld.getAddress())) {
+					templeGenerator = sWorld.getTempleGenerator(world);
+					break;
+				}
+			}
+
+			candidates = new ArrayList<IGateTempleGenerator>();
+			if (templeGenerator == null) {
+				siteSelector = GateSiteSelector.start(world, worldData, SGWorldManager.templeGens);
+				for (IGateTempleGenerator temple : SGWorldManager.templeGens) {
+					// Without a selector the terrain can't be mapped, so every temple is probed.
+					if (siteSelector == null || !(temple instanceof IScoredTempleGenerator)) candidates.add(temple);
+				}
+				Collections.shuffle(candidates, new Random(world.getSeed()));
+			}
+		}
+
+		if (siteSelector != null) {
+			if (!siteSelector.poll(deadline)) return false;
+			if (siteSelector.getTemple() != null) {
+				gateCoords = siteSelector.getGateCoords(gateRotation);
+				if (gateCoords != null) templeGenerator = siteSelector.getTemple();
+			}
+			siteSelector = null;
+			return true;
+		}
+
+		// The temples' own searches are a biome scan each. Their biomes are filled a tile per step first, so the scans only read the cache.
+		if (gateCoords == null && biomeSteps < MAX_BIOME_STEPS && world.getWorldChunkManager() instanceof SGChunkManager
+				&& ((SGChunkManager)world.getWorldChunkManager()).prepareBiomeSearch(0, 0, TEMPLE_SEARCH_RANGE)) {
+			biomeSteps++;
+			return true;
+		}
+
+		if (templeGenerator == null && !candidates.isEmpty()) {
+			IGateTempleGenerator temple = candidates.remove(0);
+			ChunkPosition coords = temple.getGateCoords(world, gateRotation);
+			if (coords != null) {
+				templeGenerator = temple;
+				gateCoords = coords;
+			}
+			return true;
+		}
+
+		if (templeGenerator == null) templeGenerator = new TemplePlain();
+		if (gateCoords == null) gateCoords = templeGenerator.getGateCoords(world, gateRotation);
+		if (gateCoords == null) gateCoords = new ChunkPosition(0, 200, 0); // This code should NEVER be run.
+
+		GenEventHandler.gateChunkCoords = new ChunkCoordIntPair(gateCoords.x >> 4, gateCoords.z >> 4);
+		stage = Stage.LOAD_CHUNKS;
+		return true;
+	}
+
+	private void loadChunk(WorldServer world) {
+		int side = CHUNK_RADIUS * 2 + 1;
+		int cX = (gateCoords.x >> 4) + chunkIndex / side - CHUNK_RADIUS;
+		int cZ = (gateCoords.z >> 4) + chunkIndex % side - CHUNK_RADIUS;
+		world.getChunkFromChunkCoords(cX, cZ);
+
+		if (++chunkIndex >= side * side) stage = Stage.BUILD_TEMPLE;
+	}
+
+	/**
+	 * Re-evaluates the gate coordinates now that the terrain around the site exists, then builds the temple.
+	 * Scored temples keep the site the selector picked, so the temple stays within the loaded chunks.
+	 */
+	private void buildTemple(WorldServer world) {
+		ChunkPosition coords = templeGenerator instanceof IScoredTempleGenerator
+				? ((IScoredTempleGenerator)templeGenerator).getGateCoords(world, gateRotation, gateCoords.x, gateCoords.z)
+				: templeGenerator.getGateCoords(world, gateRotation);
+		if (coords != null) gateCoords = coords;
+
+		templeGenerator.generateGateTemple(world, gateCoords, gateRotation);
+		stage = Stage.PLACE_GATE;
+	}
+
+	private void placeGate(WorldServer world) {
+		boolean nsr = gateRotation==0 || gateRotation==2;
+		for (int y=0; y<5; y++) {
+			for (int x=-2; x<=2; x++) {
+				world.setBlock(gateCoords.x + (nsr ? x : 0), gateCoords.y + y, gateCoords.z + (nsr ? 0 : x), 0);
+			}
+		}
+		seedingShip.placeStargate(world, gateCoords.x, gateCoords.y, gateCoords.z, gateRotation);
+
+		worldData.setGateLocation(gateCoords);
+		stage = Stage.DONE;
+		FMLLog.info("[SGWorlds] Finished bringing up %s", worldData.getDesignation());
+	}
+
+	@Override
+	public void cancel() {
+		if (siteSelector != null) siteSelector.cancel();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WorldLoadTask[%s, %s]", worldData.getDesignation(), stage);
+	}
+}
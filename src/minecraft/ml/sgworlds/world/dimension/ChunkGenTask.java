@@ -0,0 +1,47 @@
+package ml.sgworlds.world.dimension;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import ml.sgworlds.api.world.ChunkHeightmap;
+import ml.sgworlds.world.gen.ChunkRandom;
+import net.minecraft.world.biome.BiomeGenBase;
+
+/**
+ * The per-chunk state of {@link SGChunkGenerator}'s block array stages.<br/>
+ * Everything that needs the World (biome sampling) is gathered on the server thread when the task is created,
+ * so {@link #call()} can run on a worker thread.
+ */
+class ChunkGenTask implements Callable<ChunkGenTask> {
+
+	final SGChunkGenerator generator;
+	final int chunkX, chunkZ;
+	/** Used by surface replacement. Same sequence as a plain Random, without the atomic seed updates. */
+	final Random rand;
+
+	/** 16x16 block biomes, used for surface replacement and the chunk's biome array. */
+	final BiomeGenBase[] biomes;
+	/** Low resolution biomes for the terrain generator. */
+	final BiomeGenBase[] genBiomes;
+
+	final short[] blockIds = new short[16*16*256];
+	final byte[] blockMetas = new byte[blockIds.length];
+	/** Filled by the terrain stage, then lowered to the finished block arrays. */
+	ChunkHeightmap heightmap;
+	double[] stoneNoise;
+
+	ChunkGenTask(SGChunkGenerator generator, int chunkX, int chunkZ, BiomeGenBase[] biomes, BiomeGenBase[] genBiomes) {
+		this.generator = generator;
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+		this.rand = new ChunkRandom((long)chunkX * 341873128712L + (long)chunkZ * 132897987541L);
+		this.biomes = biomes;
+		this.genBiomes = genBiomes;
+	}
+
+	@Override
+	public ChunkGenTask call() {
+		generator.generateBlocks(this);
+		return this;
+	}
+}
@@ -2,28 +2,44 @@ package ml.sgworlds.world.dimension;
 
 import static net.minecraftforge.event.terraingen.PopulateChunkEvent.Populate.EventType.ICE;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import ml.sgworlds.Registry;
+
+import ml.sgworlds.api.world.ChunkHeightmap;
 import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureType;
 import ml.sgworlds.api.world.feature.WorldFeature;
+import ml.sgworlds.api.world.feature.types.IConcurrentTerrainModifier;
 import ml.sgworlds.api.world.feature.types.IFeatureLocator;
+import ml.sgworlds.api.world.feature.types.IHeightEstimator;
+import ml.sgworlds.api.world.feature.types.IHeightmapTerrainGenerator;
 import ml.sgworlds.api.world.feature.types.IPopulate;
-import ml.sgworlds.api.world.feature.types.IStructureProvider.StructureStrata;
 import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
 import ml.sgworlds.api.world.feature.types.ITerrainModifier;
-import ml.sgworlds.world.gen.structure.MapGenStructureExternal;
+import ml.sgworlds.world.gen.ChunkGenExecutor;
+import ml.sgworlds.world.gen.LRUCache;
+import ml.sgworlds.world.gen.structure.CombinedStructureGen;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockSand;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.util.IProgressUpdate;
+import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.SpawnerAnimals;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.BiomeGenBase;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraft.world.chunk.storage.AnvilChunkLoader;
+import net.minecraft.world.chunk.storage.IChunkLoader;
+import net.minecraft.world.gen.ChunkProviderServer;
 import net.minecraft.world.gen.NoiseGeneratorOctaves;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.terraingen.PopulateChunkEvent;
@@ -36,18 +52,23 @@ public class SGChunkGenerator implements IChunkProvider {
 
 	private Random rand;
 	private NoiseGeneratorOctaves noiseGen4;
-	private double[] stoneNoise = new double[256];
-	private BiomeGenBase[] biomesForGeneration;
+	private final SurfaceReplacer surfaceReplacer;
+
+	/** Heightmaps of recently generated chunks. Null if disabled. */
+	private final LRUCache<Long, ChunkHeightmap> heightmaps;
 
-	protected MapGenStructureExternal calloutStructureGenUndg = new MapGenStructureExternal(StructureStrata.Underground);
-	protected MapGenStructureExternal calloutStructureGenAbvg = new MapGenStructureExternal(StructureStrata.Aboveground);
-	protected MapGenStructureExternal calloutStructureGenSky = new MapGenStructureExternal(StructureStrata.Sky);
+	/** Chunks queued on the {@link ChunkGenExecutor}. Only touched from the server thread. */
+	private final Map<Long, Future<ChunkGenTask>> pendingChunks = new LinkedHashMap<Long, Future<ChunkGenTask>>();
+
+	protected CombinedStructureGen structureGen = new CombinedStructureGen();
 	
 	public SGChunkGenerator(World world, IWorldData worldData) {
 		this.worldObj = world;
 		this.worldData = worldData;
 		this.rand = new Random(worldData.getWorldSeed());
 		this.noiseGen4 = new NoiseGeneratorOctaves(this.rand, 4);
+		this.surfaceReplacer = new SurfaceReplacer(this.noiseGen4);
+		this.heightmaps = Registry.config.heightmapCacheSize > 0 ? new LRUCache<Long, ChunkHeightmap>(Registry.config.heightmapCacheSize) : null;
 	}
 
 	@Override
@@ -57,105 +78,194 @@ public class SGChunkGenerator implements IChunkProvider {
 
 	@Override
 	public Chunk provideChunk(int chunkX, int chunkZ) {
-		this.rand.setSeed((long)chunkX * 341873128712L + (long)chunkZ * 132897987541L);
-		short[] blockIds = new short[16*16*256];
-		byte[] blockMetas = new byte[blockIds.length];
+		ChunkGenTask task;
+		if (ChunkGenExecutor.isEnabled()) {
+			Future<ChunkGenTask> future = submitTask(chunkX, chunkZ);
+			pendingChunks.remove(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+			prefetchAround(chunkX, chunkZ, Registry.config.chunkGenPrefetchRadius);
+			task = awaitTask(chunkX, chunkZ, future);
+		} else {
+			task = createTask(chunkX, chunkZ);
+			generateBlocks(task);
+		}
+		return buildChunk(task);
+	}
 
-		ITerrainGenerator terrainGenerator = ((ITerrainGenerator)worldData.getFeature(FeatureType.TERRAIN_GENERATOR));
+	/**
+	 * Samples the biomes the block array stages need. Must be called on the server thread.
+	 */
+	private ChunkGenTask createTask(int chunkX, int chunkZ) {
+		BiomeGenBase[] biomes = this.worldObj.getWorldChunkManager().loadBlockGeneratorData(null, chunkX * 16, chunkZ * 16, 16, 16);
+		BiomeGenBase[] genBiomes = this.worldObj.getWorldChunkManager().getBiomesForGeneration(null, chunkX * 4 - 2, chunkZ * 4 - 2,
+				ITerrainGenerator.GEN_BIOMES_SIZE, ITerrainGenerator.GEN_BIOMES_SIZE);
+		return new ChunkGenTask(this, chunkX, chunkZ, biomes, genBiomes);
+	}
 
-		terrainGenerator.generateTerrain(chunkX, chunkZ, blockIds, blockMetas);
-		this.biomesForGeneration = this.worldObj.getWorldChunkManager().loadBlockGeneratorData(this.biomesForGeneration, chunkX * 16, chunkZ * 16, 16, 16);
-		this.replaceBlocksForBiome(chunkX, chunkZ, blockIds, blockMetas, this.biomesForGeneration);
+	private Future<ChunkGenTask> submitTask(int chunkX, int chunkZ) {
+		long key = ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ);
+		Future<ChunkGenTask> future = pendingChunks.get(key);
+		if (future == null) {
+			future = ChunkGenExecutor.getExecutor().submit(createTask(chunkX, chunkZ));
+			pendingChunks.put(key, future);
+		}
+		return future;
+	}
 
-		calloutStructureGenUndg.generate(this, worldObj, chunkX, chunkZ, null);
-		calloutStructureGenAbvg.generate(this, worldObj, chunkX, chunkZ, null);
-		calloutStructureGenSky.generate(this, worldObj, chunkX, chunkZ, null);
+	/**
+	 * Queues the chunks around a requested one, as they are usually requested next.
+	 */
+	private void prefetchAround(int chunkX, int chunkZ, int radius) {
+		for (int cX = chunkX-radius; cX <= chunkX+radius; cX++) {
+			for (int cZ = chunkZ-radius; cZ <= chunkZ+radius; cZ++) {
+				if ((cX != chunkX || cZ != chunkZ) && !isChunkGenerated(cX, cZ)) {
+					submitTask(cX, cZ);
+				}
+			}
+		}
 		
-		for (WorldFeature ft : worldData.getFeatures(FeatureType.TERRAIN_MODIFIFIER)) {
-			((ITerrainModifier)ft).generate(worldObj, chunkX, chunkZ, terrainGenerator, blockIds, blockMetas);
+		// Drop the oldest prefetches that were never asked for (e.g. the player turned away).
+		int maxPending = Math.max(64, (2*radius+1) * (2*radius+1) * 4);
+		Iterator<Future<ChunkGenTask>> iter = pendingChunks.values().iterator();
+		while (pendingChunks.size() > maxPending && iter.hasNext()) {
+			iter.next().cancel(false);
+			iter.remove();
 		}
+	}
 
-		Chunk chunk = new Chunk(this.worldObj, blockIds, blockMetas, chunkX, chunkZ);
-		byte[] abyte1 = chunk.getBiomeArray();
+	/**
+	 * @return True if the chunk is loaded, or saved in its region file and so will be loaded rather than generated.
+	 */
+	private boolean isChunkGenerated(int chunkX, int chunkZ) {
+		IChunkProvider provider = worldObj.getChunkProvider();
+		if (provider.chunkExists(chunkX, chunkZ)) return true;
+		if (provider instanceof ChunkProviderServer) {
+			IChunkLoader loader = ((ChunkProviderServer)provider).currentChunkLoader;
+			if (loader instanceof AnvilChunkLoader) return ((AnvilChunkLoader)loader).chunkExists(worldObj, chunkX, chunkZ);
+		}
+		return false;
+	}
 
-		for (int k = 0; k < abyte1.length; ++k) {
-			abyte1[k] = (byte)this.biomesForGeneration[k].biomeID;
+	private ChunkGenTask awaitTask(int chunkX, int chunkZ, Future<ChunkGenTask> future) {
+		try {
+			if (!future.isCancelled()) return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(String.format("Failed to generate chunk (%d, %d)", chunkX, chunkZ), e.getCause());
+		}
+		
+		// Cancelled before it ran, generate it here.
+		ChunkGenTask task = createTask(chunkX, chunkZ);
+		generateBlocks(task);
+		return task;
+	}
+
+	/**
+	 * Runs terrain generation, surface replacement and the concurrent terrain modifiers for the task.
+	 * This is called from the chunk generation workers, so it may only use the task's state.
+	 */
+	void generateBlocks(ChunkGenTask task) {
+		ITerrainGenerator terrainGenerator = worldData.getTerrainGenerator();
+
+		if (terrainGenerator instanceof IHeightmapTerrainGenerator) {
+			task.heightmap = new ChunkHeightmap();
+			((IHeightmapTerrainGenerator)terrainGenerator).generateTerrain(task.chunkX, task.chunkZ, task.genBiomes, task.blockIds, task.blockMetas, task.heightmap);
+		} else {
+			terrainGenerator.generateTerrain(task.chunkX, task.chunkZ, task.genBiomes, task.blockIds, task.blockMetas);
+			task.heightmap = ChunkHeightmap.fromBlocks(task.blockIds);
 		}
+		surfaceReplacer.replaceBlocksForBiome(task, worldObj.getActualHeight());
 
-		chunk.generateSkylightMap();
-		return chunk;
+		for (WorldFeature ft : worldData.getFeatureArray(FeatureType.TERRAIN_MODIFIFIER)) {
+			if (ft instanceof IConcurrentTerrainModifier) {
+				((ITerrainModifier)ft).generate(worldObj, task.chunkX, task.chunkZ, terrainGenerator, task.blockIds, task.blockMetas);
+			}
+		}
+
+		task.heightmap.lowerTo(task.blockIds);
+		if (heightmaps != null) heightmaps.put(ChunkCoordIntPair.chunkXZ2Int(task.chunkX, task.chunkZ), task.heightmap);
 	}
 
-	private void replaceBlocksForBiome(int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas, BiomeGenBase[] biomes) {
-		//ChunkProviderEvent.ReplaceBiomeBlocks event = new ChunkProviderEvent.ReplaceBiomeBlocks(this, par1, par2, par3ArrayOfByte, par4ArrayOfBiomeGenBase);
-		//MinecraftForge.EVENT_BUS.post(event);
-		//if (event.getResult() == Result.DENY) return;
-
-		byte b0 = 63;
-		double d0 = 0.03125D;
-		this.stoneNoise = this.noiseGen4.generateNoiseOctaves(this.stoneNoise, chunkX * 16, chunkZ * 16, 0, 16, 16, 1, d0 * 2.0D, d0 * 2.0D, d0 * 2.0D);
-
-		for (int z = 0; z < 16; ++z) {
-			for (int x = 0; x < 16; ++x) {
-				BiomeGenBase biomegenbase = biomes[x + z * 16];
-				float temperature = biomegenbase.getFloatTemperature();
-
-				boolean isDesert = biomegenbase == BiomeGenBase.desert;
-				double depthBase = isDesert ? 10.0D : 3.0D;
-				int surfaceDepth = (int)(this.stoneNoise[z + x * 16] / 3.0D + depthBase + this.rand.nextDouble() * 0.25D);
-				int fillCounter = -1;
-				short topBlock = biomegenbase.topBlock;
-				short fillBlock = biomegenbase.fillerBlock;
-
-				for (int y = worldObj.getActualHeight()-1; y >= 0; --y) {
-					int blIndex = y<<8 | z<<4 | x;
-
-					if (y <= 0 + this.rand.nextInt(5)) {
-						blockIds[blIndex] = (short)Block.bedrock.blockID;
-					} else {
-						short curBlock = blockIds[blIndex];
-
-						if (curBlock == 0) {
-							fillCounter = -1;
-						} else if (curBlock == Block.stone.blockID) {
-							if (fillCounter == -1) {
-								if (surfaceDepth <= 0) {
-									topBlock = 0;
-									fillBlock = (short)Block.stone.blockID;
-								} else if (y >= b0 - 4 && y <= b0 + 1) {
-									topBlock = biomegenbase.topBlock;
-									fillBlock = biomegenbase.fillerBlock;
-								}
-
-								if (y < b0 && topBlock == 0) {
-									if (temperature < 0.15F) {
-										topBlock = (short)Block.ice.blockID;
-									} else {
-										topBlock = (short)Block.waterStill.blockID;
-									}
-								}
-
-								fillCounter = surfaceDepth;
-
-								if (y >= b0 - 1) {
-									blockIds[blIndex] = topBlock;
-								} else {
-									blockIds[blIndex] = fillBlock;
-								}
-							} else if (fillCounter > 0) {
-								--fillCounter;
-								blockIds[blIndex] = fillBlock;
-
-								if (fillCounter == 0 && fillBlock == Block.sand.blockID) {
-									fillCounter = (isDesert ? 12 : 0) + this.rand.nextInt(4);
-									fillBlock = (short)Block.sandStone.blockID;
-								}
-							}
-						}
-					}
-				}
+	/**
+	 * Prefers the exact heights of chunks that were generated recently, then the terrain generator's estimate, and only
+	 * generates the chunk's block arrays if the generator can't estimate. None of these load the chunk. Server thread only.
+	 * @return One above the highest non-air block of the terrain at the column, water included.
+	 */
+	public int getTopHeight(int x, int z) {
+		ChunkHeightmap heightmap = getCachedHeightmap(x >> 4, z >> 4);
+		if (heightmap != null) return heightmap.getTopHeight(x, z);
+
+		ITerrainGenerator terrainGenerator = worldData.getTerrainGenerator();
+		if (terrainGenerator instanceof IHeightEstimator) {
+			return Math.max(estimateTerrainHeight((IHeightEstimator)terrainGenerator, x, z), ((IHeightEstimator)terrainGenerator).getSeaLevel());
+		}
+		return getHeightmap(x >> 4, z >> 4).getTopHeight(x, z);
+	}
+
+	/**
+	 * Same as {@link #getTopHeight}, ignoring the ocean.
+	 * @return One above the highest block of the terrain at the column that is neither air nor a fluid.
+	 */
+	public int getFloorHeight(int x, int z) {
+		ChunkHeightmap heightmap = getCachedHeightmap(x >> 4, z >> 4);
+		if (heightmap != null) return heightmap.getFloorHeight(x, z);
+
+		ITerrainGenerator terrainGenerator = worldData.getTerrainGenerator();
+		if (terrainGenerator instanceof IHeightEstimator) {
+			return estimateTerrainHeight((IHeightEstimator)terrainGenerator, x, z);
+		}
+		return getHeightmap(x >> 4, z >> 4).getFloorHeight(x, z);
+	}
+
+	private int estimateTerrainHeight(IHeightEstimator estimator, int x, int z) {
+		BiomeGenBase[] genBiomes = this.worldObj.getWorldChunkManager().getBiomesForGeneration(null, (x >> 2) - 2, (z >> 2) - 2,
+				IHeightEstimator.ESTIMATE_BIOMES_SIZE, IHeightEstimator.ESTIMATE_BIOMES_SIZE);
+		return estimator.estimateTerrainHeight(x, z, genBiomes);
+	}
+
+	private ChunkHeightmap getCachedHeightmap(int chunkX, int chunkZ) {
+		return heightmaps != null ? heightmaps.get(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ)) : null;
+	}
+
+	/**
+	 * Gets the heights of a chunk's generated terrain, before population and the terrain modifiers that need the World.<br/>
+	 * Chunks that aren't cached have their block arrays generated again, without loading them into the World. Server thread only.
+	 */
+	public ChunkHeightmap getHeightmap(int chunkX, int chunkZ) {
+		ChunkHeightmap heightmap = getCachedHeightmap(chunkX, chunkZ);
+		if (heightmap == null) {
+			ChunkGenTask task = createTask(chunkX, chunkZ);
+			generateBlocks(task);
+			heightmap = task.heightmap;
+		}
+		return heightmap;
+	}
+
+	/**
+	 * Runs the stages that need the World and wraps the finished block arrays into a {@link Chunk}. Server thread only.
+	 */
+	private Chunk buildChunk(ChunkGenTask task) {
+		int chunkX = task.chunkX, chunkZ = task.chunkZ;
+		ITerrainGenerator terrainGenerator = worldData.getTerrainGenerator();
+
+		structureGen.generate(worldObj, chunkX, chunkZ);
+		
+		for (WorldFeature ft : worldData.getFeatureArray(FeatureType.TERRAIN_MODIFIFIER)) {
+			if (!(ft instanceof IConcurrentTerrainModifier)) {
+				((ITerrainModifier)ft).generate(worldObj, chunkX, chunkZ, terrainGenerator, task.blockIds, task.blockMetas);
 			}
 		}
+
+		Chunk chunk = new Chunk(this.worldObj, task.blockIds, task.blockMetas, chunkX, chunkZ);
+		byte[] abyte1 = chunk.getBiomeArray();
+
+		for (int k = 0; k < abyte1.length; ++k) {
+			abyte1[k] = (byte)task.biomes[k].biomeID;
+		}
+
+		chunk.generateSkylightMap();
+		return chunk;
 	}
 
 	@Override
@@ -177,11 +287,9 @@ public class SGChunkGenerator implements IChunkProvider {
 
 		MinecraftForge.EVENT_BUS.post(new PopulateChunkEvent.Pre(ichunkprovider, worldObj, rand, chunkX, chunkZ, flag));
 
-		calloutStructureGenUndg.generateStructuresInChunk(worldObj, rand, chunkX, chunkZ);
-		calloutStructureGenAbvg.generateStructuresInChunk(worldObj, rand, chunkX, chunkZ);
-		calloutStructureGenSky.generateStructuresInChunk(worldObj, rand, chunkX, chunkZ);
+		structureGen.generateStructuresInChunk(worldObj, rand, chunkX, chunkZ);
 		
-		for (WorldFeature ft : worldData.getFeatures(FeatureType.CHUNK_POPULATOR)) {
+		for (WorldFeature ft : worldData.getFeatureArray(FeatureType.CHUNK_POPULATOR)) {
 			((IPopulate)ft).populate(worldObj, rand, chunkX, chunkZ);
 		}
 
@@ -246,7 +354,7 @@ public class SGChunkGenerator implements IChunkProvider {
 	public ChunkPosition findClosestStructure(World world, String s, int x, int y, int z) {
 		ChunkPosition closest = null;
 		long dist = -1;
-		for (WorldFeature loc : worldData.getFeatures(FeatureType.FEATURE_LOCATOR)) {
+		for (WorldFeature loc : worldData.getFeatureArray(FeatureType.FEATURE_LOCATOR)) {
 			ChunkPosition cp = ((IFeatureLocator)loc).locateFeature(world, s, x, y, z);
 			if (cp == null) continue;
 
@@ -267,9 +375,7 @@ public class SGChunkGenerator implements IChunkProvider {
 
 	@Override
 	public void recreateStructures(int chunkX, int chunkZ) {
-		calloutStructureGenUndg.generate(this, worldObj, chunkX, chunkZ, null);
-		calloutStructureGenAbvg.generate(this, worldObj, chunkX, chunkZ, null);
-		calloutStructureGenSky.generate(this, worldObj, chunkX, chunkZ, null);
+		structureGen.generate(worldObj, chunkX, chunkZ);
 	}
 
 	@Override
@@ -3,9 +3,11 @@ package ml.sgworlds.world.dimension;
 import java.util.List;
 import java.util.Random;
 
+import ml.sgworlds.Registry;
 import ml.sgworlds.api.world.IWorldData;
-import ml.sgworlds.api.world.feature.FeatureType;
 import ml.sgworlds.api.world.feature.types.IBiomeController;
+import ml.sgworlds.world.gen.BiomeSet;
+import ml.sgworlds.world.gen.BiomeTileCache;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.biome.BiomeGenBase;
 import net.minecraft.world.biome.WorldChunkManager;
@@ -14,13 +16,15 @@ import net.minecraft.world.gen.layer.IntCache;
 public class SGChunkManager extends WorldChunkManager {
 
 	private final IWorldData worlData;
+	/** Low resolution biomes for the structure and temple searches. Rebuilt if the world's biome controller changes. */
+	private volatile BiomeTileCache tileCache;
 	
 	public SGChunkManager(IWorldData worldData) {
 		this.worlData = worldData;
 	}
 	
 	private IBiomeController getBiomeController() {
-		return ((IBiomeController)worlData.getFeature(FeatureType.BIOME_CONTROLLER));
+		return worlData.getBiomeController();
 	}
 	
 	@Override
@@ -69,45 +73,63 @@ public class SGChunkManager extends WorldChunkManager {
 		return getBiomeController().getTemperatures(reuseArray, x, z, width, length);
 	}
 	
+	private BiomeTileCache getTileCache() {
+		IBiomeController controller = getBiomeController();
+		BiomeTileCache cache = tileCache;
+		if (cache == null || cache.getController() != controller) {
+			cache = tileCache = new BiomeTileCache(controller, Registry.config.biomeTileCacheSize);
+		}
+		return cache;
+	}
+
 	@Override
 	public boolean areBiomesViable(int par1, int par2, int par3, List par4List) {
-		IntCache.resetIntCache();
 		int l = par1 - par3 >> 2;
 		int i1 = par2 - par3 >> 2;
 		int j1 = par1 + par3 >> 2;
 		int k1 = par2 + par3 >> 2;
-		int l1 = j1 - l + 1;
-		int i2 = k1 - i1 + 1;
-		BiomeGenBase[] biomes = this.getBiomesForGeneration(null, l, i1, l1, i2);
+		BiomeTileCache.Area area = getTileCache().getArea(l, i1, j1 - l + 1, k1 - i1 + 1);
+		BiomeSet valid = new BiomeSet(par4List);
 
-		for (int j2 = 0; j2 < l1 * i2; ++j2) {
-			if (!par4List.contains(biomes[j2])) {
-				return false;
+		for (int z = i1; z <= k1; ++z) {
+			for (int x = l; x <= j1; ++x) {
+				if (!valid.contains(area.getBiome(x, z))) {
+					return false;
+				}
 			}
 		}
 
 		return true;
 	}
 
+	/**
+	 * Fills one of the biome tiles a {@link #findBiomePosition} over the area would read, if any are missing. Server thread only.
+	 * @return False once the search can run from the cache.
+	 */
+	public boolean prepareBiomeSearch(int x, int z, int range) {
+		int l = x - range >> 2;
+		int i1 = z - range >> 2;
+		int j1 = x + range >> 2;
+		int k1 = z + range >> 2;
+		return getTileCache().fillMissingTile(l, i1, j1 - l + 1, k1 - i1 + 1);
+	}
+
 	public ChunkPosition findBiomePosition(int par1, int par2, int par3, List par4List, Random par5Random) {
-		IntCache.resetIntCache();
 		int l = par1 - par3 >> 2;
 		int i1 = par2 - par3 >> 2;
 		int j1 = par1 + par3 >> 2;
 		int k1 = par2 + par3 >> 2;
-		int l1 = j1 - l + 1;
-		int i2 = k1 - i1 + 1;
-		BiomeGenBase[] biomes = this.getBiomesForGeneration(null, l, i1, l1, i2);
+		BiomeTileCache.Area area = getTileCache().getArea(l, i1, j1 - l + 1, k1 - i1 + 1);
+		BiomeSet valid = new BiomeSet(par4List);
 		ChunkPosition chunkposition = null;
 		int j2 = 0;
 
-		for (int k2 = 0; k2 < l1 * i2; ++k2) {
-			int l2 = l + k2 % l1 << 2;
-			int i3 = i1 + k2 / l1 << 2;
-
-			if (par4List.contains(biomes[k2]) && (chunkposition == null || par5Random.nextInt(j2 + 1) == 0)) {
-				chunkposition = new ChunkPosition(l2, 0, i3);
-				++j2;
+		for (int z = i1; z <= k1; ++z) {
+			for (int x = l; x <= j1; ++x) {
+				if (valid.contains(area.getBiome(x, z)) && (chunkposition == null || par5Random.nextInt(j2 + 1) == 0)) {
+					chunkposition = new ChunkPosition(x << 2, 0, z << 2);
+					++j2;
+				}
 			}
 		}
 
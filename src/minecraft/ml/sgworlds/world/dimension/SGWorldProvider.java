@@ -28,6 +28,7 @@ import cpw.mods.fml.relauncher.SideOnly;
 public class SGWorldProvider extends WorldProvider {
 
 	private SGWorldData worldData;
+	private SGChunkGenerator chunkGenerator;
 	private boolean clientDataDirty;
 	
 	@SideOnly(Side.CLIENT)
@@ -51,7 +52,15 @@ public class SGWorldProvider extends WorldProvider {
 	
 	@Override
 	public IChunkProvider createChunkGenerator() {
-		return new SGChunkGenerator(worldObj, worldData);
+		chunkGenerator = new SGChunkGenerator(worldObj, worldData);
+		return chunkGenerator;
+	}
+	
+	/**
+	 * @return The generator created for the server world, or null on the client.
+	 */
+	public SGChunkGenerator getChunkGenerator() {
+		return chunkGenerator;
 	}
 	
 	@Override
@@ -108,7 +117,7 @@ public class SGWorldProvider extends WorldProvider {
 	
 	public float getCelestialAngle(float partialTicks) {
 		float min=0.5F, max=0.5F;
-		for (WorldFeature feat : worldData.getFeatures(FeatureType.SUN)) {
+		for (WorldFeature feat : worldData.getFeatureArray(FeatureType.SUN)) {
 			IOrbitalObject sun = (IOrbitalObject)feat;
 			float s = sun.calculateCelestialAngle(getWorldTime(), partialTicks);
 			if (s<0.0F) s++;
@@ -123,7 +132,7 @@ public class SGWorldProvider extends WorldProvider {
 	
 	public long getTimeToSunrise(long worldTime) {
 		long dtime = -1;
-		for (WorldFeature feature : worldData.getFeatures(FeatureType.SUN)) {
+		for (WorldFeature feature : worldData.getFeatureArray(FeatureType.SUN)) {
 			IOrbitalObject sun = (IOrbitalObject)feature;
 			long tmToRise = sun.getTimeToRise(worldTime);
 			if (dtime < 0 || tmToRise < dtime) dtime = tmToRise;
@@ -139,7 +148,7 @@ public class SGWorldProvider extends WorldProvider {
 	// Once per tick
 	@Override
 	public void updateWeather() {
-		IWeatherController weatherController = (IWeatherController)worldData.getFeature(FeatureType.WEATHER_CONTROLLER);
+		IWeatherController weatherController = worldData.getWeatherController();
 		weatherController.updateWeather();
 		
 		this.worldObj.prevRainingStrength = this.worldObj.rainingStrength;
@@ -152,20 +161,20 @@ public class SGWorldProvider extends WorldProvider {
 	
 	@Override
 	public void toggleRain() {
-		((IWeatherController)worldData.getFeature(FeatureType.WEATHER_CONTROLLER)).toggleWeather();
+		worldData.getWeatherController().toggleWeather();
 		markDirtyClient();
 	}
 	
 	@Override
 	public void resetRainAndThunder() {
-		((IWeatherController)worldData.getFeature(FeatureType.WEATHER_CONTROLLER)).clearWeather();
+		worldData.getWeatherController().clearWeather();
 		markDirtyClient();
 	}
 	
 	// Occurs as part of tickBlocksAndAmbience
 	@Override
 	public boolean canDoLightning(Chunk chunk) {
-		((IWeatherController)worldData.getFeature(FeatureType.WEATHER_CONTROLLER)).tickLightning(chunk);
+		worldData.getWeatherController().tickLightning(chunk);
 		return false;
 	}
 	
@@ -72,7 +72,7 @@ public class SGWorldSkyRenderer extends IRenderHandler {
 	}
 
 	private void renderType(FeatureType type, float partialTicks, WorldClient world, Minecraft mc) {
-		for (WorldFeature feat : this.worldData.getFeatures(type)) {
+		for (WorldFeature feat : this.worldData.getFeatureArray(type)) {
 			if (feat instanceof WorldFeature.WorldFeatureRender) {
 				GL11.glPushMatrix();
 				GL11.glColor4f(1.0F, 1.0F, 1.0F, 1.0F);
@@ -0,0 +1,152 @@
+package ml.sgworlds.world.dimension;
+
+import java.util.Random;
+
+import ml.sgworlds.api.world.ChunkHeightmap;
+import net.minecraft.block.Block;
+import net.minecraft.world.biome.BiomeGenBase;
+import net.minecraft.world.gen.NoiseGeneratorOctaves;
+
+/**
+ * The surface replacement stage of {@link SGChunkGenerator}. Only uses the task's state, so it can run on the chunk
+ * generation workers.
+ */
+class SurfaceReplacer {
+
+	private final NoiseGeneratorOctaves stoneNoiseGen;
+	private final BiomeSurface[] biomeSurfaces = new BiomeSurface[BiomeGenBase.biomeList.length];
+
+	SurfaceReplacer(NoiseGeneratorOctaves stoneNoiseGen) {
+		this.stoneNoiseGen = stoneNoiseGen;
+
+		for (BiomeGenBase biome : BiomeGenBase.biomeList) {
+			if (biome != null) biomeSurfaces[biome.biomeID] = new BiomeSurface(biome);
+		}
+	}
+
+	/**
+	 * Replaces the top of the terrain with the biomes' top and filler blocks, and places the bedrock.<br/>
+	 * Columns are only walked from their terrain height down. Above it only the bedrock rolls are drawn, so the random
+	 * sequence, and with it the output, stays the same as a full walk. That roll is most of the cost of an empty block, so
+	 * the skip saves the block reads rather than the bulk of the work.
+	 * @param height The world's actual height.
+	 */
+	void replaceBlocksForBiome(ChunkGenTask task, int height) {
+		//ChunkProviderEvent.ReplaceBiomeBlocks event = new ChunkProviderEvent.ReplaceBiomeBlocks(this, par1, par2, par3ArrayOfByte, par4ArrayOfBiomeGenBase);
+		//MinecraftForge.EVENT_BUS.post(event);
+		//if (event.getResult() == Result.DENY) return;
+
+		int chunkX = task.chunkX, chunkZ = task.chunkZ;
+		short[] blockIds = task.blockIds;
+		ChunkHeightmap heightmap = task.heightmap;
+		BiomeGenBase[] biomes = task.biomes;
+		Random rand = task.rand;
+
+		short bedrockId = (short)Block.bedrock.blockID;
+		short stoneId = (short)Block.stone.blockID;
+		short iceId = (short)Block.ice.blockID;
+		short waterId = (short)Block.waterStill.blockID;
+		short sandId = (short)Block.sand.blockID;
+		short sandStoneId = (short)Block.sandStone.blockID;
+
+		byte b0 = 63;
+		double d0 = 0.03125D;
+		task.stoneNoise = this.stoneNoiseGen.generateNoiseOctaves(task.stoneNoise, chunkX * 16, chunkZ * 16, 0, 16, 16, 1, d0 * 2.0D, d0 * 2.0D, d0 * 2.0D);
+
+		for (int z = 0; z < 16; ++z) {
+			for (int x = 0; x < 16; ++x) {
+				BiomeSurface surface = getBiomeSurface(biomes[x + z * 16]);
+
+				int surfaceDepth = (int)(task.stoneNoise[z + x * 16] / 3.0D + surface.depthBase + rand.nextDouble() * 0.25D);
+				int fillCounter = -1;
+				short topBlock = surface.topBlock;
+				short fillBlock = surface.fillerBlock;
+
+				// Above the terrain every block is air, which keeps fillCounter at -1. Bedrock only goes below 5.
+				int y = height-1;
+				int skipTo = Math.max(Math.min(heightmap.getTopHeight(x, z), height), 5);
+				for (; y >= skipTo; --y) {
+					rand.nextInt(5);
+				}
+
+				for (; y >= 0; --y) {
+					int blIndex = y<<8 | z<<4 | x;
+
+					if (y <= 0 + rand.nextInt(5)) {
+						blockIds[blIndex] = bedrockId;
+					} else {
+						short curBlock = blockIds[blIndex];
+
+						if (curBlock == 0) {
+							fillCounter = -1;
+						} else if (curBlock == stoneId) {
+							if (fillCounter == -1) {
+								if (surfaceDepth <= 0) {
+									topBlock = 0;
+									fillBlock = stoneId;
+								} else if (y >= b0 - 4 && y <= b0 + 1) {
+									topBlock = surface.topBlock;
+									fillBlock = surface.fillerBlock;
+								}
+
+								if (y < b0 && topBlock == 0) {
+									topBlock = surface.frozen ? iceId : waterId;
+								}
+
+								fillCounter = surfaceDepth;
+
+								if (y >= b0 - 1) {
+									blockIds[blIndex] = topBlock;
+								} else {
+									blockIds[blIndex] = fillBlock;
+								}
+							} else if (fillCounter > 0) {
+								--fillCounter;
+								blockIds[blIndex] = fillBlock;
+
+								if (fillCounter == 0 && fillBlock == sandId) {
+									fillCounter = (surface.desert ? 12 : 0) + rand.nextInt(4);
+									fillBlock = sandStoneId;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The surface rules of the biome, from the table built when the replacer was created if the biome
+	 * was registered by then.
+	 */
+	private BiomeSurface getBiomeSurface(BiomeGenBase biome) {
+		int id = biome.biomeID;
+		if (id >= 0 && id < biomeSurfaces.length) {
+			BiomeSurface surface = biomeSurfaces[id];
+			if (surface != null && surface.biome == biome) return surface;
+		}
+		return new BiomeSurface(biome);
+	}
+
+	/**
+	 * The values {@link #replaceBlocksForBiome} needs from a biome.
+	 */
+	private static class BiomeSurface {
+		final BiomeGenBase biome;
+		final short topBlock;
+		final short fillerBlock;
+		final boolean desert;
+		final boolean frozen;
+		final double depthBase;
+
+		BiomeSurface(BiomeGenBase biome) {
+			this.biome = biome;
+			this.topBlock = biome.topBlock;
+			this.fillerBlock = biome.fillerBlock;
+			this.desert = biome == BiomeGenBase.desert;
+			this.frozen = biome.getFloatTemperature() < 0.15F;
+			this.depthBase = desert ? 10.0D : 3.0D;
+		}
+	}
+}
@@ -1,9 +1,11 @@
 package ml.sgworlds.world.feature;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureProvider;
@@ -13,21 +15,33 @@ import ml.sgworlds.api.world.feature.IFeatureManager;
 import ml.sgworlds.api.world.feature.SimpleProvider;
 import ml.sgworlds.api.world.feature.WorldFeature;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 
 public class FeatureManager implements IFeatureManager {
 	
 	public static FeatureManager instance = new FeatureManager();
 	
-	private Multimap<FeatureType, FeatureProvider> featureProviders = HashMultimap.create();
+	private Multimap<FeatureType, FeatureProvider> featureProviders = LinkedHashMultimap.create();
 	private Map<FeatureType, FeatureProvider> defaultFeatures = new HashMap<FeatureType, FeatureProvider>();
+	
+	/*
+	 * Lookup tables. Registration happens on the main thread during init, but lookups also come from the world
+	 * loading threads, so the maps are concurrent and the per-type arrays are replaced rather than modified.
+	 */
+	private final Map<String, FeatureProvider> providersById = new ConcurrentHashMap<String, FeatureProvider>();
+	private final Map<String, String> aliases = new ConcurrentHashMap<String, String>();
+	private volatile FeatureProvider[][] typeProviders = buildTypeArrays();
+	private volatile List<FeatureProvider>[] typeProviderLists = buildTypeLists(typeProviders);
+	private volatile FeatureSelector selector;
 
 	@Override
 	public boolean registerFeatureProvider(FeatureProvider provider) {
 		if (provider.type == FeatureType.ALL) throw new IllegalArgumentException("(\""+ provider.getClass().getName() +"\") Feature type cannot be ALL!");
-		if (featureProviders.containsValue(provider)) return false;
+		if (featureProviders.containsValue(provider) || providersById.containsKey(provider.identifier)) return false;
 		featureProviders.put(provider.type, provider);
+		providersById.put(provider.identifier, provider);
+		rebuildTypeArrays();
 		return true;
 	}
 	
@@ -35,9 +49,43 @@ public class FeatureManager implements IFeatureManager {
 	public boolean unregisterFeatureProvider(FeatureProvider provider) {
 		if (!featureProviders.containsValue(provider)) return false;
 		featureProviders.remove(provider.type, provider);
+		providersById.remove(provider.identifier);
+		aliases.values().remove(provider.identifier);
+		rebuildTypeArrays();
 		return true;
 	}
 	
+	/**
+	 * Makes features saved under an old identifier load with the provider of the current one.
+	 */
+	@Override
+	public void registerAlias(String legacyIdentifier, String identifier) {
+		aliases.put(legacyIdentifier, identifier);
+	}
+	
+	private void rebuildTypeArrays() {
+		FeatureProvider[][] arrays = buildTypeArrays();
+		typeProviderLists = buildTypeLists(arrays);
+		typeProviders = arrays;
+		selector = null;
+	}
+	
+	private FeatureProvider[][] buildTypeArrays() {
+		FeatureProvider[][] arrays = new FeatureProvider[FeatureType.values().length][];
+		for (FeatureType type : FeatureType.values()) {
+			arrays[type.ordinal()] = (type == FeatureType.ALL ? featureProviders.values() : featureProviders.get(type)).toArray(new FeatureProvider[0]);
+		}
+		return arrays;
+	}
+	
+	private static List<FeatureProvider>[] buildTypeLists(FeatureProvider[][] arrays) {
+		List<FeatureProvider>[] lists = new List[arrays.length];
+		for (int i=0; i<arrays.length; i++) {
+			lists[i] = Collections.unmodifiableList(Arrays.asList(arrays[i]));
+		}
+		return lists;
+	}
+	
 	@Override
 	public FeatureProvider registerFeature(String identifier, FeatureType type, Class<? extends WorldFeature> featureClass) {
 		FeatureProvider nprovider = new FeatureProvider(identifier, type, featureClass);
@@ -63,8 +111,18 @@ public class FeatureManager implements IFeatureManager {
 	
 	@Override
 	public FeatureProvider getFeatureProvider(String identifier) {
-		for (FeatureProvider p : featureProviders.values()) {
-			if (p.willLoadFeatureId(identifier)) return p;
+		FeatureProvider provider = providersById.get(identifier);
+		if (provider != null) return provider;
+		
+		String alias = aliases.get(identifier);
+		if (alias != null) return providersById.get(alias);
+		
+		// Providers that still claim old ids through willLoadFeatureId; remembered as an alias once found.
+		for (FeatureProvider p : typeProviders[FeatureType.ALL.ordinal()]) {
+			if (p.willLoadFeatureId(identifier)) {
+				aliases.put(identifier, p.identifier);
+				return p;
+			}
 		}
 		return null;
 	}
@@ -83,8 +141,29 @@ public class FeatureManager implements IFeatureManager {
 		defaultFeatures.put(provider.type, provider);
 	}
 	
+	/**
+	 * @return An unmodifiable list of the providers of the type, in registration order. It is shared, not a copy.
+	 */
 	public List<FeatureProvider> getFeatureProviders(FeatureType type) {
-		return new ArrayList<FeatureProvider>(featureProviders.get(type));
+		return typeProviderLists[type.ordinal()];
+	}
+	
+	/**
+	 * @return The providers of the type, in registration order. The array is shared and must not be modified.
+	 */
+	public FeatureProvider[] getFeatureProviderArray(FeatureType type) {
+		return typeProviders[type.ordinal()];
+	}
+	
+	/**
+	 * @return The selection tables for the currently registered providers. Built on first use after registration.
+	 */
+	public FeatureSelector getSelector() {
+		FeatureSelector sel = selector;
+		if (sel == null) {
+			sel = selector = new FeatureSelector(this);
+		}
+		return sel;
 	}
 	
 	@Override
@@ -0,0 +1,142 @@
+package ml.sgworlds.world.feature;
+
+import ml.sgworlds.api.world.feature.FeatureProvider;
+import ml.sgworlds.api.world.feature.FeatureType;
+import ml.sgworlds.api.world.feature.WorldFeature;
+
+/**
+ * Precomputed tables for picking random features, built once per set of registered providers.<br/>
+ * For each {@link FeatureType} this holds the cumulative weights of the dependent providers, the list of independent
+ * ones and a bit matrix of which providers are compatible with each other.
+ */
+public class FeatureSelector {
+
+	private final TypeTable[] tables = new TypeTable[FeatureType.values().length];
+
+	public FeatureSelector(FeatureManager manager) {
+		for (FeatureType type : FeatureType.values()) {
+			if (type == FeatureType.ALL) continue;
+			tables[type.ordinal()] = new TypeTable(manager.getFeatureProviderArray(type));
+		}
+	}
+
+	public TypeTable getTable(FeatureType type) {
+		return tables[type.ordinal()];
+	}
+
+	public static class TypeTable {
+		private final FeatureProvider[] providers;
+		private final int[] weights;
+		private final int[] independent;
+		/** Cumulative weights of the dependent providers, used when every provider is allowed. */
+		private final int[] cumulative;
+		/** compatible[i] has bit j set if providers i and j accept each other. */
+		private final long[][] compatible;
+		private final long[] allMask;
+
+		private TypeTable(FeatureProvider[] providers) {
+			int n = providers.length;
+			int words = (n + 63) >> 6;
+			this.providers = providers;
+			this.weights = new int[n];
+			this.compatible = new long[n][words];
+			this.allMask = new long[words];
+
+			int indepCount = 0;
+			for (int i=0; i<n; i++) {
+				allMask[i >> 6] |= 1L << (i & 63);
+				if (providers[i].independent) indepCount++;
+				else weights[i] = providers[i].getWeight();
+
+				for (int j=0; j<n; j++) {
+					if (providers[i].compatibleWith(providers[j]) && providers[j].compatibleWith(providers[i])) {
+						compatible[i][j >> 6] |= 1L << (j & 63);
+					}
+				}
+			}
+
+			this.independent = new int[indepCount];
+			for (int i=0, k=0; i<n; i++) {
+				if (providers[i].independent) independent[k++] = i;
+			}
+			this.cumulative = buildCumulative(allMask);
+		}
+
+		public FeatureProvider getProvider(int index) {
+			return providers[index];
+		}
+
+		public int[] getIndependent() {
+			return independent;
+		}
+
+		private int indexOf(FeatureProvider provider) {
+			for (int i=0; i<providers.length; i++) {
+				if (providers[i] == provider) return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return A mask of the providers that are compatible with every one of the existing features.
+		 */
+		public long[] getAllowedMask(WorldFeature[] existing) {
+			if (existing.length == 0) return allMask;
+
+			long[] mask = allMask.clone();
+			for (WorldFeature feature : existing) {
+				int idx = indexOf(feature.getProvider());
+				if (idx >= 0) {
+					for (int w=0; w<mask.length; w++) {
+						mask[w] &= compatible[idx][w];
+					}
+				} else {
+					// Not registered any more, ask the providers directly
+					FeatureProvider other = feature.getProvider();
+					for (int i=0; i<providers.length; i++) {
+						if (!providers[i].compatibleWith(other) || !other.compatibleWith(providers[i])) {
+							mask[i >> 6] &= ~(1L << (i & 63));
+						}
+					}
+				}
+			}
+			return mask;
+		}
+
+		public boolean isAllowed(long[] mask, int index) {
+			return (mask[index >> 6] & (1L << (index & 63))) != 0;
+		}
+
+		/**
+		 * @return Cumulative weights of the allowed dependent providers, indexed like the providers.
+		 */
+		public int[] getCumulativeWeights(long[] mask) {
+			if (mask == allMask) return cumulative;
+			return buildCumulative(mask);
+		}
+
+		private int[] buildCumulative(long[] mask) {
+			int[] cum = new int[providers.length];
+			int total = 0;
+			for (int i=0; i<providers.length; i++) {
+				if (isAllowed(mask, i)) total += weights[i];
+				cum[i] = total;
+			}
+			return cum;
+		}
+
+		/**
+		 * @param roll A number in [0, total weight).
+		 * @return The index of the provider the roll lands on.
+		 */
+		public int pick(int[] cumulative, int roll) {
+			int lo = 0, hi = cumulative.length - 1;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (cumulative[mid] > roll) hi = mid;
+				else lo = mid + 1;
+			}
+			return lo;
+		}
+	}
+}
@@ -1,17 +1,28 @@
 package ml.sgworlds.world.feature.impl;
 
+import ml.sgworlds.Registry;
 import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureProvider;
 import ml.sgworlds.api.world.feature.WorldFeature;
+import ml.sgworlds.api.world.feature.types.IConcurrentTerrainModifier;
 import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
-import ml.sgworlds.api.world.feature.types.ITerrainModifier;
+import ml.sgworlds.world.gen.LRUCache;
 import ml.sgworlds.world.gen.MapGenCavesSGW;
+import ml.sgworlds.world.gen.MapGenExtended.Tunnel;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.World;
 
-public class FeatureCaves extends WorldFeature implements ITerrainModifier {
+public class FeatureCaves extends WorldFeature implements IConcurrentTerrainModifier {
 	
-	MapGenCavesSGW caveGen = new MapGenCavesSGW();
+	/** The caves recorded per source chunk, shared by the worker threads' carvers. */
+	private final LRUCache<Long, Tunnel[]> tunnels = Registry.config.carverCacheSize > 0 ? new LRUCache<Long, Tunnel[]>(Registry.config.carverCacheSize) : null;
+
+	private final ThreadLocal<MapGenCavesSGW> caveGen = new ThreadLocal<MapGenCavesSGW>() {
+		@Override
+		protected MapGenCavesSGW initialValue() {
+			return new MapGenCavesSGW(tunnels);
+		}
+	};
 
 	public FeatureCaves(FeatureProvider provider, IWorldData worldData) {
 		super(provider, worldData);
@@ -19,7 +30,7 @@ public class FeatureCaves extends WorldFeature implements ITerrainModifier {
 
 	@Override
 	public void generate(World world, int chunkX, int chunkY, ITerrainGenerator terrainGenerator, short[] blockIds, byte[] blockMetas) {
-		caveGen.generate(world.getChunkProvider(), world, chunkX, chunkY, terrainGenerator, blockIds, blockMetas);
+		caveGen.get().generate(world.getChunkProvider(), world, chunkX, chunkY, terrainGenerator, blockIds, blockMetas);
 	}
 
 	@Override
@@ -1,17 +1,28 @@
 package ml.sgworlds.world.feature.impl;
 
+import ml.sgworlds.Registry;
 import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureProvider;
 import ml.sgworlds.api.world.feature.WorldFeature;
+import ml.sgworlds.api.world.feature.types.IConcurrentTerrainModifier;
 import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
-import ml.sgworlds.api.world.feature.types.ITerrainModifier;
+import ml.sgworlds.world.gen.LRUCache;
+import ml.sgworlds.world.gen.MapGenExtended.Tunnel;
 import ml.sgworlds.world.gen.MapGenRavineSGW;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.World;
 
-public class FeatureRavines extends WorldFeature implements ITerrainModifier {
+public class FeatureRavines extends WorldFeature implements IConcurrentTerrainModifier {
 	
-	MapGenRavineSGW ravineGen = new MapGenRavineSGW();
+	/** The ravines recorded per source chunk, shared by the worker threads' carvers. */
+	private final LRUCache<Long, Tunnel[]> tunnels = Registry.config.carverCacheSize > 0 ? new LRUCache<Long, Tunnel[]>(Registry.config.carverCacheSize) : null;
+
+	private final ThreadLocal<MapGenRavineSGW> ravineGen = new ThreadLocal<MapGenRavineSGW>() {
+		@Override
+		protected MapGenRavineSGW initialValue() {
+			return new MapGenRavineSGW(tunnels);
+		}
+	};
 
 	public FeatureRavines(FeatureProvider provider, IWorldData worldData) {
 		super(provider, worldData);
@@ -19,7 +30,7 @@ public class FeatureRavines extends WorldFeature implements ITerrainModifier {
 
 	@Override
 	public void generate(World world, int chunkX, int chunkY, ITerrainGenerator terrainGenerator, short[] blockIds, byte[] blockMetas) {
-		ravineGen.generate(world.getChunkProvider(), world, chunkX, chunkY, terrainGenerator, blockIds, blockMetas);
+		ravineGen.get().generate(world.getChunkProvider(), world, chunkX, chunkY, terrainGenerator, blockIds, blockMetas);
 	}
 
 	@Override
@@ -2,12 +2,15 @@ package ml.sgworlds.world.feature.impl;
 
 import java.util.Random;
 
+import ml.sgworlds.Registry;
 import ml.sgworlds.api.world.IWorldData;
 import ml.sgworlds.api.world.feature.FeatureProvider;
 import ml.sgworlds.api.world.feature.prefab.BaseTerrainGenerator;
 import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
+import ml.sgworlds.world.gen.LRUCache;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.MathHelper;
+import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.biome.BiomeGenBase;
 import net.minecraft.world.gen.NoiseGeneratorOctaves;
@@ -21,18 +24,30 @@ public class TerrainDefault extends BaseTerrainGenerator implements ITerrainGene
 	public NoiseGeneratorOctaves noiseGen5;
 	public NoiseGeneratorOctaves noiseGen6;
 
-	double[] noise3;
-	double[] noise1;
-	double[] noise2;
-	double[] noise5;
-	double[] noise6;
+	/** Finished noise columns keyed by lattice x/z. Adjacent chunks share their border columns. */
+	private final LRUCache<Long, double[]> columnCache;
 
-	float[] parabolicField;
-	private BiomeGenBase[] biomesForGeneration;
-	private Random rand;
+	private static final float[] parabolicField = new float[25];
+	static {
+		for (int k1 = -2; k1 <= 2; ++k1) {
+			for (int l1 = -2; l1 <= 2; ++l1) {
+				float f = 10.0F / MathHelper.sqrt_float((float)(k1 * k1 + l1 * l1) + 0.2F);
+				parabolicField[k1 + 2 + (l1 + 2) * 5] = f;
+			}
+		}
+	}
+
+	protected static class NoiseContext extends TerrainContext {
+		double[] noise3;
+		double[] noise1;
+		double[] noise2;
+		double[] noise6;
+	}
 
 	public TerrainDefault(FeatureProvider provider, IWorldData worldData) {
 		super(provider, worldData);
+		int cacheSize = Registry.config.terrainNoiseCacheSize;
+		this.columnCache = cacheSize > 0 ? new LRUCache<Long, double[]>(cacheSize) : null;
 	}
 
 	@Override
@@ -40,19 +55,24 @@ public class TerrainDefault extends BaseTerrainGenerator implements ITerrainGene
 		// TODO
 	}
 
+	@Override
+	protected TerrainContext createContext() {
+		return new NoiseContext();
+	}
+
 	@Override
 	public void onProviderCreated(WorldProvider wprovider) {
 		
-		this.rand = new Random(2);
-		this.noiseGen1 = new NoiseGeneratorOctaves(this.rand, 16);
-        this.noiseGen2 = new NoiseGeneratorOctaves(this.rand, 16);
-        this.noiseGen3 = new NoiseGeneratorOctaves(this.rand, 8);
-        this.noiseGen4 = new NoiseGeneratorOctaves(this.rand, 4);
-        this.noiseGen5 = new NoiseGeneratorOctaves(this.rand, 10);
-        this.noiseGen6 = new NoiseGeneratorOctaves(this.rand, 16);
+		Random rand = new Random(2);
+		this.noiseGen1 = new NoiseGeneratorOctaves(rand, 16);
+        this.noiseGen2 = new NoiseGeneratorOctaves(rand, 16);
+        this.noiseGen3 = new NoiseGeneratorOctaves(rand, 8);
+        this.noiseGen4 = new NoiseGeneratorOctaves(rand, 4);
+        this.noiseGen5 = new NoiseGeneratorOctaves(rand, 10);
+        this.noiseGen6 = new NoiseGeneratorOctaves(rand, 16);
 
 //        NoiseGeneratorOctaves[] noiseGens = {noiseGen1, noiseGen2, noiseGen3, noiseGen4, noiseGen5, noiseGen6};
-//        noiseGens = TerrainGen.getModdedNoiseGenerators(wprovider.g, this.rand, noiseGens);
+//        noiseGens = TerrainGen.getModdedNoiseGenerators(wprovider.g, rand, noiseGens);
 //        this.noiseGen1 = noiseGens[0];
 //        this.noiseGen2 = noiseGens[1];
 //        this.noiseGen3 = noiseGens[2];
@@ -62,152 +82,185 @@ public class TerrainDefault extends BaseTerrainGenerator implements ITerrainGene
 	}
 	
 	@Override
-	public double[] initializeNoiseField(double[] par1ArrayOfDouble, int subX, int subY, int subZ, int sizeX, int sizeY, int sizeZ) {
+	public double[] initializeNoiseField(TerrainContext tctx, double[] par1ArrayOfDouble, BiomeGenBase[] genBiomes, int subX, int subY, int subZ, int sizeX, int sizeY, int sizeZ) {
 		//ChunkProviderEvent.InitNoiseField event = new ChunkProviderEvent.InitNoiseField(this, par1ArrayOfDouble, par2, par3, par4, par5, par6, par7);
 		//MinecraftForge.EVENT_BUS.post(event);
 		//if (event.getResult() == Result.DENY) return event.noisefield;
 
-		this.biomesForGeneration = worldData.getWorldProvider().worldChunkMgr.getBiomesForGeneration(null, subX-2, subZ-2, sizeX+5, sizeZ+5);
+		NoiseContext ctx = (NoiseContext)tctx;
 
 		if (par1ArrayOfDouble == null) {
 			par1ArrayOfDouble = new double[sizeX * sizeY * sizeZ];
 		}
 
-		if (this.parabolicField == null) {
-			this.parabolicField = new float[25];
-			for (int k1 = -2; k1 <= 2; ++k1) {
-				for (int l1 = -2; l1 <= 2; ++l1) {
-					float f = 10.0F / MathHelper.sqrt_float((float)(k1 * k1 + l1 * l1) + 0.2F);
-					this.parabolicField[k1 + 2 + (l1 + 2) * 5] = f;
+		if (columnCache == null || subY != 0) {
+			// Sampled in one batch, as vanilla does. The octaves work from the batch origin, so these densities are the ones
+			// generated before the cache existed.
+			double d0 = 684.412D;
+			double d1 = 684.412D;
+			ctx.noise6 = this.noiseGen6.generateNoiseOctaves(ctx.noise6, subX, subZ, sizeX, sizeZ, 200.0D, 200.0D, 0.5D);
+			ctx.noise3 = this.noiseGen3.generateNoiseOctaves(ctx.noise3, subX, subY, subZ, sizeX, sizeY, sizeZ, d0 / 80.0D, d1 / 160.0D, d0 / 80.0D);
+			ctx.noise1 = this.noiseGen1.generateNoiseOctaves(ctx.noise1, subX, subY, subZ, sizeX, sizeY, sizeZ, d0, d1, d0);
+			ctx.noise2 = this.noiseGen2.generateNoiseOctaves(ctx.noise2, subX, subY, subZ, sizeX, sizeY, sizeZ, d0, d1, d0);
+
+			int i2 = 0;
+			int j2 = 0;
+			for (int k2 = 0; k2 < sizeX; ++k2) {
+				for (int l2 = 0; l2 < sizeZ; ++l2) {
+					computeDensities(ctx, genBiomes, sizeX + 5, k2, l2, ctx.noise6[j2++], i2, sizeY, par1ArrayOfDouble, i2);
+					i2 += sizeY;
 				}
 			}
+			return par1ArrayOfDouble;
+		}
+
+		int i2 = 0;
+
+		for (int k2 = 0; k2 < sizeX; ++k2) {
+			for (int l2 = 0; l2 < sizeZ; ++l2) {
+				int lx = subX + k2;
+				int lz = subZ + l2;
+				Long key = ChunkCoordIntPair.chunkXZ2Int(lx, lz);
+				double[] column = columnCache.get(key);
+				if (column != null && column.length != sizeY) column = null;
+
+				if (column == null) {
+					column = computeNoiseColumn(ctx, genBiomes, sizeX + 5, k2, l2, lx, lz, sizeY);
+					columnCache.put(key, column);
+				}
+
+				System.arraycopy(column, 0, par1ArrayOfDouble, i2, sizeY);
+				i2 += sizeY;
+			}
 		}
 
+		return par1ArrayOfDouble;
+	}
+
+	/**
+	 * Computes a single column of the noise lattice.<br/>
+	 * Octaves are sampled per-column so that a column comes out the same no matter which chunk asked for it, which is
+	 * what lets neighbouring chunks share cached columns. The samples differ in the last bits from a batch over the chunk.
+	 */
+	private double[] computeNoiseColumn(NoiseContext ctx, BiomeGenBase[] genBiomes, int biomeWidth, int k2, int l2, int lx, int lz, int sizeY) {
 		double d0 = 684.412D;
 		double d1 = 684.412D;
-		this.noise5 = this.noiseGen5.generateNoiseOctaves(this.noise5, subX, subZ, sizeX, sizeZ, 1.121D, 1.121D, 0.5D);
-		this.noise6 = this.noiseGen6.generateNoiseOctaves(this.noise6, subX, subZ, sizeX, sizeZ, 200.0D, 200.0D, 0.5D);
-		this.noise3 = this.noiseGen3.generateNoiseOctaves(this.noise3, subX, subY, subZ, sizeX, sizeY, sizeZ, d0 / 80.0D, d1 / 160.0D, d0 / 80.0D);
-		this.noise1 = this.noiseGen1.generateNoiseOctaves(this.noise1, subX, subY, subZ, sizeX, sizeY, sizeZ, d0, d1, d0);
-		this.noise2 = this.noiseGen2.generateNoiseOctaves(this.noise2, subX, subY, subZ, sizeX, sizeY, sizeZ, d0, d1, d0);
-		boolean flag = false;
-		boolean flag1 = false;
-		int i2 = 0;
-		int j2 = 0;
+		ctx.noise6 = this.noiseGen6.generateNoiseOctaves(ctx.noise6, lx, lz, 1, 1, 200.0D, 200.0D, 0.5D);
+		ctx.noise3 = this.noiseGen3.generateNoiseOctaves(ctx.noise3, lx, 0, lz, 1, sizeY, 1, d0 / 80.0D, d1 / 160.0D, d0 / 80.0D);
+		ctx.noise1 = this.noiseGen1.generateNoiseOctaves(ctx.noise1, lx, 0, lz, 1, sizeY, 1, d0, d1, d0);
+		ctx.noise2 = this.noiseGen2.generateNoiseOctaves(ctx.noise2, lx, 0, lz, 1, sizeY, 1, d0, d1, d0);
+
+		double[] column = new double[sizeY];
+		computeDensities(ctx, genBiomes, biomeWidth, k2, l2, ctx.noise6[0], 0, sizeY, column, 0);
+		return column;
+	}
 
-		for (int k2 = 0; k2 < sizeX; ++k2)
+	/**
+	 * Turns a lattice column's noise samples into densities, blending the heights of the biomes around it.
+	 * @param noiseIndex Where the column starts in the context's 3D noise arrays.
+	 */
+	private static void computeDensities(NoiseContext ctx, BiomeGenBase[] genBiomes, int biomeWidth, int k2, int l2, double noise6, int noiseIndex, int sizeY, double[] out, int outIndex) {
+		float f1 = 0.0F;
+		float f2 = 0.0F;
+		float f3 = 0.0F;
+		byte b0 = 2;
+		BiomeGenBase biomegenbase = genBiomes[k2 + 2 + (l2 + 2) * biomeWidth];
+
+		for (int i3 = -b0; i3 <= b0; ++i3)
 		{
-			for (int l2 = 0; l2 < sizeZ; ++l2)
+			for (int j3 = -b0; j3 <= b0; ++j3)
 			{
-				float f1 = 0.0F;
-				float f2 = 0.0F;
-				float f3 = 0.0F;
-				byte b0 = 2;
-				BiomeGenBase biomegenbase = this.biomesForGeneration[k2 + 2 + (l2 + 2) * (sizeX + 5)];
+				BiomeGenBase biomegenbase1 = genBiomes[k2 + i3 + 2 + (l2 + j3 + 2) * biomeWidth];
+				float f4 = parabolicField[i3 + 2 + (j3 + 2) * 5] / (biomegenbase1.minHeight + 2.0F);
 
-				for (int i3 = -b0; i3 <= b0; ++i3)
+				if (biomegenbase1.minHeight > biomegenbase.minHeight)
 				{
-					for (int j3 = -b0; j3 <= b0; ++j3)
-					{
-						BiomeGenBase biomegenbase1 = this.biomesForGeneration[k2 + i3 + 2 + (l2 + j3 + 2) * (sizeX + 5)];
-						float f4 = this.parabolicField[i3 + 2 + (j3 + 2) * 5] / (biomegenbase1.minHeight + 2.0F);
-
-						if (biomegenbase1.minHeight > biomegenbase.minHeight)
-						{
-							f4 /= 2.0F;
-						}
-
-						f1 += biomegenbase1.maxHeight * f4;
-						f2 += biomegenbase1.minHeight * f4;
-						f3 += f4;
-					}
+					f4 /= 2.0F;
 				}
 
-				f1 /= f3;
-				f2 /= f3;
-				f1 = f1 * 0.9F + 0.1F;
-				f2 = (f2 * 4.0F - 1.0F) / 8.0F;
-				double d2 = this.noise6[j2] / 8000.0D;
+				f1 += biomegenbase1.maxHeight * f4;
+				f2 += biomegenbase1.minHeight * f4;
+				f3 += f4;
+			}
+		}
 
-				if (d2 < 0.0D)
-				{
-					d2 = -d2 * 0.3D;
-				}
+		f1 /= f3;
+		f2 /= f3;
+		f1 = f1 * 0.9F + 0.1F;
+		f2 = (f2 * 4.0F - 1.0F) / 8.0F;
+		double d2 = noise6 / 8000.0D;
 
-				d2 = d2 * 3.0D - 2.0D;
+		if (d2 < 0.0D)
+		{
+			d2 = -d2 * 0.3D;
+		}
 
-				if (d2 < 0.0D)
-				{
-					d2 /= 2.0D;
+		d2 = d2 * 3.0D - 2.0D;
 
-					if (d2 < -1.0D)
-					{
-						d2 = -1.0D;
-					}
+		if (d2 < 0.0D)
+		{
+			d2 /= 2.0D;
 
-					d2 /= 1.4D;
-					d2 /= 2.0D;
-				}
-				else
-				{
-					if (d2 > 1.0D)
-					{
-						d2 = 1.0D;
-					}
+			if (d2 < -1.0D)
+			{
+				d2 = -1.0D;
+			}
 
-					d2 /= 8.0D;
-				}
+			d2 /= 1.4D;
+			d2 /= 2.0D;
+		}
+		else
+		{
+			if (d2 > 1.0D)
+			{
+				d2 = 1.0D;
+			}
 
-				++j2;
+			d2 /= 8.0D;
+		}
 
-				for (int k3 = 0; k3 < sizeY; ++k3)
-				{
-					double d3 = (double)f2;
-					double d4 = (double)f1;
-					d3 += d2 * 0.2D;
-					d3 = d3 * (double)sizeY / 16.0D;
-					double d5 = (double)sizeY / 2.0D + d3 * 4.0D;
-					double d6 = 0.0D;
-					double d7 = ((double)k3 - d5) * 12.0D * 128.0D / 128.0D / d4;
-
-					if (d7 < 0.0D)
-					{
-						d7 *= 4.0D;
-					}
-
-					double d8 = this.noise1[i2] / 512.0D;
-					double d9 = this.noise2[i2] / 512.0D;
-					double d10 = (this.noise3[i2] / 10.0D + 1.0D) / 2.0D;
-
-					if (d10 < 0.0D)
-					{
-						d6 = d8;
-					}
-					else if (d10 > 1.0D)
-					{
-						d6 = d9;
-					}
-					else
-					{
-						d6 = d8 + (d9 - d8) * d10;
-					}
-
-					d6 -= d7;
-
-					if (k3 > sizeY - 4)
-					{
-						double d11 = (double)((float)(k3 - (sizeY - 4)) / 3.0F);
-						d6 = d6 * (1.0D - d11) + -10.0D * d11;
-					}
-
-					par1ArrayOfDouble[i2] = d6;
-					++i2;
-				}
+		for (int k3 = 0; k3 < sizeY; ++k3)
+		{
+			double d3 = (double)f2;
+			double d4 = (double)f1;
+			d3 += d2 * 0.2D;
+			d3 = d3 * (double)sizeY / 16.0D;
+			double d5 = (double)sizeY / 2.0D + d3 * 4.0D;
+			double d6 = 0.0D;
+			double d7 = ((double)k3 - d5) * 12.0D * 128.0D / 128.0D / d4;
+
+			if (d7 < 0.0D)
+			{
+				d7 *= 4.0D;
 			}
-		}
 
-		return par1ArrayOfDouble;
+			double d8 = ctx.noise1[noiseIndex + k3] / 512.0D;
+			double d9 = ctx.noise2[noiseIndex + k3] / 512.0D;
+			double d10 = (ctx.noise3[noiseIndex + k3] / 10.0D + 1.0D) / 2.0D;
+
+			if (d10 < 0.0D)
+			{
+				d6 = d8;
+			}
+			else if (d10 > 1.0D)
+			{
+				d6 = d9;
+			}
+			else
+			{
+				d6 = d8 + (d9 - d8) * d10;
+			}
+
+			d6 -= d7;
+
+			if (k3 > sizeY - 4)
+			{
+				double d11 = (double)((float)(k3 - (sizeY - 4)) / 3.0F);
+				d6 = d6 * (1.0D - d11) + -10.0D * d11;
+			}
+
+			out[outIndex + k3] = d6;
+		}
 	}
 
 }
-
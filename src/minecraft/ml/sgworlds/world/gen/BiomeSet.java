@@ -0,0 +1,28 @@
+package ml.sgworlds.world.gen;
+
+import java.util.Collection;
+
+import net.minecraft.world.biome.BiomeGenBase;
+
+/**
+ * A set of biomes as a bitset of their ids, for membership checks in tight loops.
+ */
+public class BiomeSet {
+
+	private final long[] bits = new long[(BiomeGenBase.biomeList.length + 63) >> 6];
+
+	public BiomeSet(Collection<?> biomes) {
+		for (Object obj : biomes) {
+			if (obj instanceof BiomeGenBase) {
+				int id = ((BiomeGenBase)obj).biomeID;
+				bits[id >> 6] |= 1L << (id & 63);
+			}
+		}
+	}
+
+	public boolean contains(BiomeGenBase biome) {
+		if (biome == null) return false;
+		int id = biome.biomeID;
+		return (bits[id >> 6] & (1L << (id & 63))) != 0;
+	}
+}
@@ -0,0 +1,99 @@
+package ml.sgworlds.world.gen;
+
+import ml.sgworlds.api.world.feature.types.IBiomeController;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.biome.BiomeGenBase;
+import net.minecraft.world.gen.layer.IntCache;
+
+/**
+ * Caches a world's low resolution (one sample per 4 blocks) biomes in square tiles, so repeated searches over the same area,
+ * like structure placement and temple siting, don't run the biome layers again.<br/>
+ * Relies on the biome controller giving the same biome for a position whatever area it was asked for, as the vanilla layers do.
+ * Filling a tile uses the layers' {@link IntCache}, so lookups must happen on the server thread.
+ */
+public class BiomeTileCache {
+
+	public static final int TILE_SHIFT = 6;
+	public static final int TILE_SIZE = 1 << TILE_SHIFT;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+
+	private final IBiomeController controller;
+	private final LRUCache<Long, BiomeGenBase[]> tiles;
+
+	public BiomeTileCache(IBiomeController controller, int capacity) {
+		this.controller = controller;
+		this.tiles = new LRUCache<Long, BiomeGenBase[]>(capacity);
+	}
+
+	private BiomeGenBase[] getTile(int tileX, int tileZ) {
+		Long key = ChunkCoordIntPair.chunkXZ2Int(tileX, tileZ);
+		BiomeGenBase[] tile = tiles.get(key);
+		if (tile == null) {
+			IntCache.resetIntCache();
+			tile = controller.getBiomesForGeneration(new BiomeGenBase[TILE_SIZE*TILE_SIZE], tileX << TILE_SHIFT, tileZ << TILE_SHIFT, TILE_SIZE, TILE_SIZE);
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Gets the tiles covering an area, so it can be read with {@link Area#getBiome} without further lookups.
+	 * All coordinates are in low resolution samples.
+	 */
+	public Area getArea(int x, int z, int width, int length) {
+		return new Area(x, z, width, length);
+	}
+
+	/**
+	 * Fills at most one tile of an area that isn't cached yet, so a search over it can be prepared a step at a time.
+	 * All coordinates are in low resolution samples.
+	 * @return True if a tile was filled, false if the whole area was already cached or doesn't fit in the cache.
+	 */
+	public boolean fillMissingTile(int x, int z, int width, int length) {
+		int minTileX = x >> TILE_SHIFT, maxTileX = (x + width - 1) >> TILE_SHIFT;
+		int minTileZ = z >> TILE_SHIFT, maxTileZ = (z + length - 1) >> TILE_SHIFT;
+		if ((maxTileX - minTileX + 1) * (maxTileZ - minTileZ + 1) > tiles.getCapacity()) return false;
+
+		for (int tileZ = minTileZ; tileZ <= maxTileZ; tileZ++) {
+			for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+				if (tiles.get(ChunkCoordIntPair.chunkXZ2Int(tileX, tileZ)) == null) {
+					getTile(tileX, tileZ);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public IBiomeController getController() {
+		return controller;
+	}
+
+	public LRUCache<Long, BiomeGenBase[]> getTileCache() {
+		return tiles;
+	}
+
+	public class Area {
+		private final int tileX0, tileZ0, tilesWide;
+		private final BiomeGenBase[][] areaTiles;
+
+		private Area(int x, int z, int width, int length) {
+			this.tileX0 = x >> TILE_SHIFT;
+			this.tileZ0 = z >> TILE_SHIFT;
+			this.tilesWide = ((x + width - 1) >> TILE_SHIFT) - tileX0 + 1;
+			int tilesLong = ((z + length - 1) >> TILE_SHIFT) - tileZ0 + 1;
+
+			this.areaTiles = new BiomeGenBase[tilesWide * tilesLong][];
+			for (int tz = 0; tz < tilesLong; tz++) {
+				for (int tx = 0; tx < tilesWide; tx++) {
+					areaTiles[tz * tilesWide + tx] = getTile(tileX0 + tx, tileZ0 + tz);
+				}
+			}
+		}
+
+		public BiomeGenBase getBiome(int x, int z) {
+			BiomeGenBase[] tile = areaTiles[((z >> TILE_SHIFT) - tileZ0) * tilesWide + (x >> TILE_SHIFT) - tileX0];
+			return tile[(z & TILE_MASK) << TILE_SHIFT | (x & TILE_MASK)];
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package ml.sgworlds.world.gen;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ml.sgworlds.Registry;
+
+/**
+ * Worker pool shared by all SG worlds for the block array stages of chunk generation.<br/>
+ * Sized by the chunkGenThreads config option. 0 uses one thread less than the number of cores.
+ */
+public class ChunkGenExecutor {
+
+	private static ExecutorService executor;
+
+	public static boolean isEnabled() {
+		return Registry.config.asyncChunkGeneration;
+	}
+
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			int threads = Registry.config.chunkGenThreads;
+			if (threads <= 0) threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "SGWorlds Chunk Gen #" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Stops the workers. Any unfinished chunks are dropped and will be generated again on request.
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package ml.sgworlds.world.gen;
+
+import java.util.Random;
+
+/**
+ * A {@link Random} that produces exactly the same sequence, but keeps its seed in a plain field instead of an
+ * atomic one.<br/>
+ * Only for use by a single thread, e.g. a chunk generation task drawing a few hundred thousand numbers per chunk.
+ */
+public class ChunkRandom extends Random {
+
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+
+	private long seed;
+
+	public ChunkRandom(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		super.setSeed(seed);
+		this.seed = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	@Override
+	protected int next(int bits) {
+		seed = (seed * MULTIPLIER + ADDEND) & MASK;
+		return (int)(seed >>> (48 - bits));
+	}
+}
@@ -0,0 +1,105 @@
+package ml.sgworlds.world.gen;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe least-recently-used cache.<br/>
+ * Entries are spread over independently locked segments so the chunk generation workers rarely wait on each other.
+ * Hit and miss counts are kept so the capacity can be tuned.
+ */
+public class LRUCache<K, V> {
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment<K, V>[] segments;
+	private final int capacity;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	@SuppressWarnings("unchecked")
+	public LRUCache(int capacity) {
+		this.capacity = capacity;
+		this.segments = new Segment[SEGMENTS];
+
+		int segCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+		for (int i=0; i<SEGMENTS; i++) {
+			segments[i] = new Segment<K, V>(segCapacity);
+		}
+	}
+
+	private Segment<K, V> segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16) ^ (h >>> 8);
+		return segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * @return The cached value, or null. Counts as a hit or miss.
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+
+		if (value != null) hits.incrementAndGet();
+		else misses.incrementAndGet();
+		return value;
+	}
+
+	public void put(K key, V value) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private static class Segment<K, V> extends LinkedHashMap<K, V> {
+		private final int capacity;
+
+		public Segment(int capacity) {
+			super(16, 0.75F, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -1,49 +1,327 @@
 package ml.sgworlds.world.gen;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
 import net.minecraft.block.Block;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.IChunkProvider;
 
+/**
+ * Base of the cave and ravine carvers.<br/>
+ * The tunnels started in a source chunk don't depend on the chunk being carved, so {@link #recursiveGenerate} only records them
+ * as lists of spheroid segments. Each target chunk in range then replays the segments against its own blocks, which gives the same
+ * blocks as walking the tunnels per target did. With a tunnel cache the walk happens once per source chunk rather than once for each of
+ * the (2*range+1)^2 chunks around it.
+ */
 public class MapGenExtended {
+	private static final Tunnel[] NO_TUNNELS = new Tunnel[0];
+	/** Heights the water check can see. */
+	private static final int WATER_HEIGHT = 128;
+
+	private static final int bedrockId = Block.bedrock.blockID;
+	private static final int waterMovingId = Block.waterMoving.blockID;
+	private static final int waterStillId = Block.waterStill.blockID;
+
 	protected int range = 8;
 	protected Random rand = new Random();
 	protected World worldObj;
 
 	protected ITerrainGenerator terrainGenerator;
 
+	/** Recorded tunnels by source chunk, shared by the carvers of one world. Null to record them again for each target chunk. */
+	private final LRUCache<Long, Tunnel[]> tunnelCache;
+
+	/** Water blocks of the chunk being carved, as two longs of height bits per column. Filled in 16 layer bands as the water checks reach them. */
+	private final long[] waterColumns = new long[256 * 2];
+	private int scannedBands;
+	private boolean hasWater;
+
+	/**
+	 * One tunnel of a carver, as the segments it carves and the tunnels branching off its end.
+	 */
+	public static class Tunnel {
+		private static final int STEP_SIZE = 6;
+
+		final float width;
+		/** Large cave rooms stop after the first segment that carves a target chunk. */
+		final boolean large;
+		/** Squared horizontal scale of the walls per height, for ravines. */
+		final float[] wallScales;
+
+		/** x, y, z, horizontal radius, vertical radius and remaining steps of each segment. */
+		private double[] steps = new double[STEP_SIZE * 16];
+		private int stepCount;
+		private Tunnel[] branches;
+
+		/** Bounds of the carve checks of this tunnel and its branches. */
+		private double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		private double minZ = Double.POSITIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+
+		public Tunnel(float width, boolean large, float[] wallScales) {
+			this.width = width;
+			this.large = large;
+			this.wallScales = wallScales;
+		}
+
+		public void addStep(double x, double y, double z, double radiusH, double radiusV, int remaining) {
+			if (stepCount * STEP_SIZE == steps.length) {
+				double[] grown = new double[steps.length * 2];
+				System.arraycopy(steps, 0, grown, 0, steps.length);
+				steps = grown;
+			}
+
+			int i = stepCount++ * STEP_SIZE;
+			steps[i] = x;
+			steps[i+1] = y;
+			steps[i+2] = z;
+			steps[i+3] = radiusH;
+			steps[i+4] = radiusV;
+			steps[i+5] = remaining;
+			includeBounds(x - radiusH * 2.0D, x + radiusH * 2.0D, z - radiusH * 2.0D, z + radiusH * 2.0D);
+		}
+
+		public void setBranches(Tunnel... branches) {
+			this.branches = branches;
+			for (Tunnel branch : branches) {
+				includeBounds(branch.minX, branch.maxX, branch.minZ, branch.maxZ);
+			}
+		}
+
+		private void includeBounds(double minX, double maxX, double minZ, double maxZ) {
+			this.minX = Math.min(this.minX, minX);
+			this.maxX = Math.max(this.maxX, maxX);
+			this.minZ = Math.min(this.minZ, minZ);
+			this.maxZ = Math.max(this.maxZ, maxZ);
+		}
+
+		/**
+		 * Trims the segment array once the tunnel is complete.
+		 */
+		void compact() {
+			if (steps.length > stepCount * STEP_SIZE) {
+				double[] trimmed = new double[stepCount * STEP_SIZE];
+				System.arraycopy(steps, 0, trimmed, 0, trimmed.length);
+				steps = trimmed;
+			}
+			if (branches != null) {
+				for (Tunnel branch : branches) branch.compact();
+			}
+		}
+
+		/**
+		 * @return False if no segment of the tunnel or its branches can reach the chunk. Conservative by a block.
+		 */
+		boolean mayReach(double chunkCentX, double chunkCentZ) {
+			return maxX >= chunkCentX - 17.0D && minX <= chunkCentX + 17.0D && maxZ >= chunkCentZ - 17.0D && minZ <= chunkCentZ + 17.0D;
+		}
+	}
+
+	public MapGenExtended() {
+		this(null);
+	}
+
+	public MapGenExtended(LRUCache<Long, Tunnel[]> tunnelCache) {
+		this.tunnelCache = tunnelCache;
+	}
+
 	public void generate(IChunkProvider par1IChunkProvider, World par2World, int chunkX, int chunkZ, ITerrainGenerator terrainGenerator, short[] blockIds, byte[] blockMetas) {
 		this.terrainGenerator = terrainGenerator;
-		
+
 		int k = this.range;
 		this.worldObj = par2World;
 		this.rand.setSeed(par2World.getSeed());
 		long l = this.rand.nextLong();
 		long i1 = this.rand.nextLong();
+		Arrays.fill(waterColumns, 0);
+		this.scannedBands = 0;
+		this.hasWater = false;
 
 		for (int altChunkX = chunkX - k; altChunkX <= chunkX + k; ++altChunkX) {
 			for (int altChunkZ = chunkZ - k; altChunkZ <= chunkZ + k; ++altChunkZ) {
-				long l1 = (long)altChunkX * l;
-				long i2 = (long)altChunkZ * i1;
-				this.rand.setSeed(l1 ^ i2 ^ par2World.getSeed());
-				this.recursiveGenerate(par2World, altChunkX, altChunkZ, chunkX, chunkZ, blockIds, blockMetas);
+				Long key = tunnelCache != null ? ChunkCoordIntPair.chunkXZ2Int(altChunkX, altChunkZ) : null;
+				Tunnel[] tunnels = key != null ? tunnelCache.get(key) : null;
+
+				if (tunnels == null) {
+					long l1 = (long)altChunkX * l;
+					long i2 = (long)altChunkZ * i1;
+					this.rand.setSeed(l1 ^ i2 ^ par2World.getSeed());
+
+					List<Tunnel> recorded = new ArrayList<Tunnel>(0);
+					this.recursiveGenerate(par2World, altChunkX, altChunkZ, recorded);
+					tunnels = recorded.isEmpty() ? NO_TUNNELS : recorded.toArray(new Tunnel[recorded.size()]);
+					for (Tunnel tunnel : tunnels) tunnel.compact();
+					if (key != null) tunnelCache.put(key, tunnels);
+				}
+
+				for (Tunnel tunnel : tunnels) {
+					this.carveTunnel(tunnel, chunkX, chunkZ, blockIds, blockMetas);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records the tunnels started in a source chunk, in carving order. Called by generate() with rand seeded for the chunk.
+	 */
+	protected void recursiveGenerate(World par1World, int altChunkX, int altChunkZ, List<Tunnel> tunnels) {}
+
+	/**
+	 * Carves a recorded tunnel into the target chunk, stopping where walking it for that chunk would have.
+	 */
+	protected void carveTunnel(Tunnel tunnel, int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas) {
+		double chunkCentX = (double)(chunkX * 16 + 8);
+		double chunkCentZ = (double)(chunkZ * 16 + 8);
+		if (!tunnel.mayReach(chunkCentX, chunkCentZ)) return;
+
+		double d11 = (double)(tunnel.width + 2.0F + 16.0F);
+		double[] steps = tunnel.steps;
+
+		for (int i = 0; i < tunnel.stepCount * Tunnel.STEP_SIZE; i += Tunnel.STEP_SIZE) {
+			double altX = steps[i];
+			double altY = steps[i+1];
+			double altZ = steps[i+2];
+			double d6 = steps[i+3];
+			double d7 = steps[i+4];
+
+			// The rest of the tunnel can't reach the chunk any more.
+			double d8 = altX - chunkCentX;
+			double d9 = altZ - chunkCentZ;
+			double d10 = steps[i+5];
+
+			if (d8 * d8 + d9 * d9 - d10 * d10 > d11 * d11) {
+				return;
+			}
+
+			if (altX >= chunkCentX - 16.0D - d6 * 2.0D && altZ >= chunkCentZ - 16.0D - d6 * 2.0D && altX <= chunkCentX + 16.0D + d6 * 2.0D && altZ <= chunkCentZ + 16.0D + d6 * 2.0D) {
+				int minX = MathHelper.floor_double(altX - d6) - chunkX * 16 - 1;
+				int maxX = MathHelper.floor_double(altX + d6) - chunkX * 16 + 1;
+				int minY = MathHelper.floor_double(altY - d7) - 1;
+				int maxY = MathHelper.floor_double(altY + d7) + 1;
+				int minZ = MathHelper.floor_double(altZ - d6) - chunkZ * 16 - 1;
+				int maxZ = MathHelper.floor_double(altZ + d6) - chunkZ * 16 + 1;
+
+				if (minX < 0) {
+					minX = 0;
+				}
+
+				if (maxX > 16) {
+					maxX = 16;
+				}
+
+				if (minY < 1) {
+					minY = 1;
+				}
+
+				if (maxY > 120) {
+					maxY = 120;
+				}
+
+				if (minZ < 0) {
+					minZ = 0;
+				}
+
+				if (maxZ > 16) {
+					maxZ = 16;
+				}
+
+				boolean oceanBlockFound = this.findWater(blockIds, minX, maxX, minY, maxY, minZ, maxZ);
+
+				if (!oceanBlockFound) {
+					this.carveSegment(tunnel, chunkX, chunkZ, blockIds, blockMetas, altX, altY, altZ, d6, d7, minX, maxX, minY, maxY, minZ, maxZ);
+
+					if (tunnel.large) {
+						return;
+					}
+				}
+			}
+		}
+
+		if (tunnel.branches != null) {
+			for (Tunnel branch : tunnel.branches) {
+				this.carveTunnel(branch, chunkX, chunkZ, blockIds, blockMetas);
+			}
+		}
+	}
+
+	private void scanWater(short[] blockIds, int fromY, int toY) {
+		toY = Math.min(toY, WATER_HEIGHT - 1);
+		for (int band = fromY >> 4; band <= toY >> 4; band++) {
+			if ((scannedBands & 1 << band) != 0) continue;
+			scannedBands |= 1 << band;
+
+			int end = Math.min(blockIds.length, band + 1 << 12);
+			for (int index = band << 12; index < end; index++) {
+				int id = blockIds[index];
+				if (id == waterMovingId || id == waterStillId) {
+					waterColumns[(index & 255) << 1 | index >> 14] |= 1L << (index >> 8 & 63);
+					hasWater = true;
+				}
 			}
 		}
 	}
 
 	/**
-	 * Recursively called by generate() (generate) and optionally by itself.
+	 * Whether any of the blocks the carvers have always checked before carving a segment is water: the whole height range on the
+	 * edge columns of the bounds, and just the layers above and below it on the inner ones.
 	 */
-	protected void recursiveGenerate(World par1World, int altChunkX, int altChunkZ, int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas) {}
+	private boolean findWater(short[] blockIds, int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {
+		int bottom = minY - 1, top = maxY + 1;
+		if (top < bottom || minX >= maxX || minZ >= maxZ) return false;
+
+		this.scanWater(blockIds, bottom, top);
+		if (!hasWater) return false;
+
+		long edgeLow = rangeMask(bottom, top, 0), edgeHigh = rangeMask(bottom, top, 1);
+		long innerLow = rangeMask(bottom, bottom, 0) | rangeMask(top, top, 0);
+		long innerHigh = rangeMask(bottom, bottom, 1) | rangeMask(top, top, 1);
+
+		for (int lx = minX; lx < maxX; ++lx) {
+			for (int lz = minZ; lz < maxZ; ++lz) {
+				int column = (lz<<4 | lx) << 1;
+				boolean edge = lx == minX || lx == maxX - 1 || lz == minZ || lz == maxZ - 1;
+
+				if ((waterColumns[column] & (edge ? edgeLow : innerLow)) != 0 || (waterColumns[column + 1] & (edge ? edgeHigh : innerHigh)) != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The bits of the heights from..to (inclusive) that fall in the given long of a column.
+	 */
+	private static long rangeMask(int from, int to, int word) {
+		int low = Math.max(from, word * 64) - word * 64;
+		int high = Math.min(to, word * 64 + 63) - word * 64;
+		if (low > high) return 0;
+		return (-1L >>> (63 - high)) & (-1L << low);
+	}
+
+	/**
+	 * @return The lowest and highest height (packed as low | high << 16) of a column of the segment worth testing, given the
+	 * largest vertical extent of the shape within it. The span is widened by a block against rounding; the exact test decides.
+	 */
+	protected static int spanY(double altY, double below, double above, int minY, int maxY) {
+		int low = Math.max(minY, MathHelper.floor_double(altY - below - 0.5D) - 1);
+		int high = Math.min(maxY - 1, MathHelper.floor_double(altY + above - 0.5D) + 1);
+		return low | high << 16;
+	}
+
+	/**
+	 * Clears the blocks of one segment within the given chunk local bounds.
+	 */
+	protected void carveSegment(Tunnel tunnel, int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas, double altX, double altY, double altZ, double d6, double d7, int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {}
 
 	protected void placeFillBlock(short[] blocksIds, byte[] blockMetas, int index) {
-		short blkId = blocksIds[index];
-		Block blk = Block.blocksList[blkId];
+		if (blocksIds[index] == bedrockId) return;
 
-		if (blk == Block.bedrock) return;
-		
 		int x = index & 15;
 		int y = index >> 8;
 		int z = index >> 4 & 15;
@@ -55,13 +333,16 @@ public class MapGenExtended {
 			blockMetas[index] = 0;
 		}
 	}
-	
+
 	protected void clearBlock(short[] blocksIds, byte[] blockMetas, int index) {
-		short blkId = blocksIds[index];
-		Block blk = Block.blocksList[blkId];
+		int blkId = blocksIds[index];
+
+		if (blkId == bedrockId) return;
+
+		if ((blkId == waterMovingId || blkId == waterStillId) && index < WATER_HEIGHT << 8) {
+			waterColumns[(index & 255) << 1 | index >> 14] &= ~(1L << (index >> 8 & 63));
+		}
 
-		if (blk == Block.bedrock) return;
-		
 		blocksIds[index] = 0;
 		blockMetas[index] = 0;
 	}
@@ -0,0 +1,53 @@
+package ml.sgworlds.world.gen;
+
+import ml.sgworlds.api.world.ChunkHeightmap;
+import ml.sgworlds.world.dimension.SGChunkGenerator;
+import ml.sgworlds.world.dimension.SGWorldProvider;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockFluid;
+import net.minecraft.world.World;
+
+/**
+ * Height lookups for structure and temple placement.<br/>
+ * In SG worlds these come from the chunk generator's heightmaps or height estimates, so they don't load chunks. Elsewhere they fall back to the World.
+ */
+public class TerrainHeights {
+
+	/**
+	 * @return The World's SG chunk generator, or null if the World isn't a server side SG world.
+	 */
+	public static SGChunkGenerator getGenerator(World world) {
+		if (!world.isRemote && world.provider instanceof SGWorldProvider) {
+			return ((SGWorldProvider)world.provider).getChunkGenerator();
+		}
+		return null;
+	}
+
+	/**
+	 * @return The chunk's heightmap, or null if the World isn't a server side SG world.
+	 */
+	public static ChunkHeightmap getHeightmap(World world, int chunkX, int chunkZ) {
+		SGChunkGenerator generator = getGenerator(world);
+		return generator != null ? generator.getHeightmap(chunkX, chunkZ) : null;
+	}
+
+	/**
+	 * @return One above the highest non-air block of the terrain, water included. See {@link World#getHeightValue}.
+	 */
+	public static int getSurfaceHeight(World world, int x, int z) {
+		SGChunkGenerator generator = getGenerator(world);
+		return generator != null ? generator.getTopHeight(x, z) : world.getHeightValue(x, z);
+	}
+
+	/**
+	 * @return One above the highest block of the terrain that is neither air nor a fluid.
+	 */
+	public static int getFloorHeight(World world, int x, int z) {
+		SGChunkGenerator generator = getGenerator(world);
+		if (generator != null) return generator.getFloorHeight(x, z);
+
+		int y = world.getHeightValue(x, z)-1;
+		while (y >= 0 && (world.isAirBlock(x, y, z) || Block.blocksList[world.getBlockId(x, y, z)] instanceof BlockFluid)) y--;
+		return y+1;
+	}
+}
@@ -0,0 +1,193 @@
+package ml.sgworlds.world.gen.structure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ml.sgworlds.api.world.feature.types.IStructureProvider;
+import ml.sgworlds.api.world.feature.types.IStructureProvider.StructureStrata;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.gen.structure.MapGenStructureData;
+import net.minecraft.world.gen.structure.MapGenStructureIO;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+import net.minecraft.world.gen.structure.StructureStart;
+
+/**
+ * Generates the structures of every {@link StructureStrata} of an SG world in one pass.<br/>
+ * The chunk range is scanned once for all strata, with the providers looked up in the {@link StructurePlacementIndex}. Starts
+ * are kept in one map by chunk, and indexed by the regions of chunks whose population area their bounding box overlaps, so
+ * populating a chunk only looks at starts that can reach it. Starts are saved per strata, under the names the separate
+ * MapGenStructures used. Server thread only.<br/>
+ * Starts that reach the same chunk share its populate Random, so the order they generate in matters. They go in strata order,
+ * as before, and within a strata by the key of their chunk. The separate MapGenStructures went in the iteration order of their
+ * HashMap instead, which depended on when each start was made, so a chunk where two starts of one strata overlap can come out
+ * differently than it did.
+ */
+public class CombinedStructureGen {
+
+	private static final StructureStrata[] STRATAS = StructureStrata.values();
+	private static final int RANGE = 8;
+	private static final int REGION_SHIFT = 3;
+
+	private final Random rand = new Random();
+	private World world;
+	private StructurePlacementIndex placementIndex;
+	private final MapGenStructureData[] structureData = new MapGenStructureData[STRATAS.length];
+
+	/** Starts by the chunk they begin in, one slot per strata. */
+	private final Map<Long, StructureStart[]> starts = new HashMap<Long, StructureStart[]>();
+	/** Starts by region of population chunks, in strata order and then by chunk key. */
+	private final Map<Long, List<PlacedStart>> regions = new HashMap<Long, List<PlacedStart>>();
+
+	private static class PlacedStart {
+		final StructureStart start;
+		final StructureStrata strata;
+		final long chunkKey;
+
+		PlacedStart(StructureStart start, StructureStrata strata, long chunkKey) {
+			this.start = start;
+			this.strata = strata;
+			this.chunkKey = chunkKey;
+		}
+
+		boolean goesBefore(PlacedStart other) {
+			if (strata != other.strata) return strata.ordinal() < other.strata.ordinal();
+			return chunkKey < other.chunkKey;
+		}
+	}
+
+	public static String getDataName(StructureStrata strata) {
+		return "SGWStructure" + strata.toString();
+	}
+
+	private void bind(World world) {
+		if (this.world == world) return;
+
+		this.world = world;
+		this.placementIndex = StructurePlacementIndex.get(world);
+		starts.clear();
+		regions.clear();
+
+		for (StructureStrata strata : STRATAS) {
+			String name = getDataName(strata);
+			MapGenStructureData data = (MapGenStructureData)world.perWorldStorage.loadData(MapGenStructureData.class, name);
+
+			if (data == null) {
+				data = new MapGenStructureData(name);
+				world.perWorldStorage.setData(name, data);
+			} else {
+				for (Object tag : data.func_143041_a().getTags()) {
+					if (!(tag instanceof NBTTagCompound)) continue;
+
+					NBTTagCompound startTag = (NBTTagCompound)tag;
+					if (startTag.hasKey("ChunkX") && startTag.hasKey("ChunkZ")) {
+						StructureStart start = MapGenStructureIO.func_143035_a(startTag, world);
+						if (start != null) addStart(start, strata, startTag.getInteger("ChunkX"), startTag.getInteger("ChunkZ"));
+					}
+				}
+			}
+			structureData[strata.ordinal()] = data;
+		}
+	}
+
+	/**
+	 * Creates the starts of all strata in range of the chunk that don't exist yet.
+	 */
+	public void generate(World world, int chunkX, int chunkZ) {
+		bind(world);
+
+		// Seeded as MapGenBase does, so each start gets the Random it got from its strata's own generator.
+		rand.setSeed(world.getSeed());
+		long l = rand.nextLong();
+		long i1 = rand.nextLong();
+
+		for (int altChunkX = chunkX - RANGE; altChunkX <= chunkX + RANGE; ++altChunkX) {
+			for (int altChunkZ = chunkZ - RANGE; altChunkZ <= chunkZ + RANGE; ++altChunkZ) {
+				StructureStart[] chunkStarts = starts.get(ChunkCoordIntPair.chunkXZ2Int(altChunkX, altChunkZ));
+
+				for (StructureStrata strata : STRATAS) {
+					if (chunkStarts != null && chunkStarts[strata.ordinal()] != null) continue;
+
+					IStructureProvider isp = placementIndex.getProvider(strata, altChunkX, altChunkZ);
+					if (isp == null) continue;
+
+					rand.setSeed((long)altChunkX * l ^ (long)altChunkZ * i1 ^ world.getSeed());
+					rand.nextInt();
+
+					StructureStart start = isp.getStructureStart(world, rand, altChunkX, altChunkZ);
+					if (start == null) throw new RuntimeException(String.format("Structure provider \"%s\" reported that it would provide a structure for chunk (%d, %d) but did not!", isp.getClass().getName(), altChunkX, altChunkZ));
+
+					chunkStarts = addStart(start, strata, altChunkX, altChunkZ);
+					saveStart(start, strata, altChunkX, altChunkZ);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates the parts of all starts that fall in the chunk's population area.
+	 * @return True if any start was generated into.
+	 */
+	public boolean generateStructuresInChunk(World world, Random rand, int chunkX, int chunkZ) {
+		bind(world);
+
+		List<PlacedStart> candidates = regions.get(ChunkCoordIntPair.chunkXZ2Int(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT));
+		if (candidates == null) return false;
+
+		int x = (chunkX << 4) + 8;
+		int z = (chunkZ << 4) + 8;
+		boolean generated = false;
+
+		for (PlacedStart placed : candidates) {
+			StructureStart start = placed.start;
+			if (start.isSizeableStructure() && start.getBoundingBox().intersectsWith(x, z, x + 15, z + 15)) {
+				start.generateStructure(world, rand, new StructureBoundingBox(x, z, x + 15, z + 15));
+				generated = true;
+				saveStart(start, placed.strata, start.func_143019_e(), start.func_143018_f());
+			}
+		}
+		return generated;
+	}
+
+	private StructureStart[] addStart(StructureStart start, StructureStrata strata, int chunkX, int chunkZ) {
+		Long key = ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ);
+		StructureStart[] chunkStarts = starts.get(key);
+		if (chunkStarts == null) {
+			chunkStarts = new StructureStart[STRATAS.length];
+			starts.put(key, chunkStarts);
+		}
+		chunkStarts[strata.ordinal()] = start;
+
+		// A chunk's population area runs from 8 blocks into it to 8 blocks into the next one.
+		StructureBoundingBox box = start.getBoundingBox();
+		int minRegionX = ((box.minX - 23) >> 4) >> REGION_SHIFT, maxRegionX = ((box.maxX - 8) >> 4) >> REGION_SHIFT;
+		int minRegionZ = ((box.minZ - 23) >> 4) >> REGION_SHIFT, maxRegionZ = ((box.maxZ - 8) >> 4) >> REGION_SHIFT;
+		PlacedStart placed = new PlacedStart(start, strata, key);
+
+		for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+			for (int regionZ = minRegionZ; regionZ <= maxRegionZ; regionZ++) {
+				Long regionKey = ChunkCoordIntPair.chunkXZ2Int(regionX, regionZ);
+				List<PlacedStart> region = regions.get(regionKey);
+				if (region == null) {
+					region = new ArrayList<PlacedStart>(2);
+					regions.put(regionKey, region);
+				}
+
+				int i = region.size();
+				while (i > 0 && placed.goesBefore(region.get(i-1))) i--;
+				region.add(i, placed);
+			}
+		}
+		return chunkStarts;
+	}
+
+	private void saveStart(StructureStart start, StructureStrata strata, int chunkX, int chunkZ) {
+		MapGenStructureData data = structureData[strata.ordinal()];
+		data.func_143043_a(start.func_143021_a(chunkX, chunkZ), chunkX, chunkZ);
+		data.markDirty();
+	}
+}
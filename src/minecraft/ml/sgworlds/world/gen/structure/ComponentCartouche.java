@@ -5,6 +5,7 @@ import java.util.Random;
 import ml.core.world.structure.MLStructureComponent;
 import ml.core.world.structure.StructureBuilder;
 import ml.sgworlds.Registry;
+import ml.sgworlds.world.gen.TerrainHeights;
 import net.minecraft.block.Block;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.ChunkCoordinates;
@@ -47,7 +48,7 @@ public class ComponentCartouche extends MLStructureComponent {
 	@Override
 	public boolean addComponentParts(World world, Random random, StructureBoundingBox chunkBox) {
 		if (position.posY < 0) {
-			position.posY = Math.max(4, world.getHeightValue(position.posX, position.posZ) - 10);
+			position.posY = Math.max(4, TerrainHeights.getSurfaceHeight(world, position.posX, position.posZ) - 10);
 			updateBoundingBox();
 		}
 		
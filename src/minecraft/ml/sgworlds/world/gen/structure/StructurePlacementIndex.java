@@ -0,0 +1,191 @@
+package ml.sgworlds.world.gen.structure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import ml.sgworlds.api.world.feature.FeatureType;
+import ml.sgworlds.api.world.feature.WorldFeature;
+import ml.sgworlds.api.world.feature.types.IStructureProvider;
+import ml.sgworlds.api.world.feature.types.IStructureProvider.StructureStrata;
+import ml.sgworlds.world.dimension.SGWorldProvider;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+
+/**
+ * Records which {@link IStructureProvider} claims each chunk of an SG world, per strata.<br/>
+ * Placement is worked out for a cell of chunks at a time, the first time one of them is asked about, and saved with the world
+ * so reloads don't ask the providers again. Server thread only.
+ */
+public class StructurePlacementIndex extends WorldSavedData {
+
+	public static final String DATA_NAME = "SGWStructurePlacement";
+
+	private static final int CELL_SHIFT = 4;
+	private static final int CELL_SIZE = 1 << CELL_SHIFT;
+	private static final int MAX_PROVIDERS = 255;
+
+	private World world;
+	private IStructureProvider[] providers;
+	private String[] providerIds;
+
+	/** Per cell, one provider number (index+1, 0 for none) for each strata and chunk. */
+	private final Map<Long, byte[]> cells = new HashMap<Long, byte[]>();
+
+	public StructurePlacementIndex(String name) {
+		super(name);
+	}
+
+	/**
+	 * @return The World's index, loaded from its save if there is one.
+	 */
+	public static StructurePlacementIndex get(World world) {
+		StructurePlacementIndex index = (StructurePlacementIndex)world.perWorldStorage.loadData(StructurePlacementIndex.class, DATA_NAME);
+		if (index == null) {
+			index = new StructurePlacementIndex(DATA_NAME);
+			world.perWorldStorage.setData(DATA_NAME, index);
+		}
+		if (index.world != world) index.bind(world);
+		return index;
+	}
+
+	private void bind(World world) {
+		this.world = world;
+
+		WorldFeature[] features = ((SGWorldProvider)world.provider).getWorldData().getFeatureArray(FeatureType.STRUCTURE_PROVIDER);
+		if (features.length > MAX_PROVIDERS) throw new RuntimeException(String.format("Too many structure providers (%d) in dimension %d", features.length, world.provider.dimensionId));
+
+		IStructureProvider[] current = new IStructureProvider[features.length];
+		String[] currentIds = new String[features.length];
+		for (int i = 0; i < features.length; i++) {
+			current[i] = (IStructureProvider)features[i];
+			currentIds[i] = features[i].getProvider().identifier;
+		}
+
+		// The feature order isn't kept between loads, so saved cells are renumbered by provider identifier. If that's ambiguous they're dropped.
+		if (providerIds != null && !cells.isEmpty()) {
+			int[] remap = remapProviders(providerIds, currentIds);
+			if (remap == null) {
+				cells.clear();
+				markDirty();
+			} else {
+				for (byte[] cell : cells.values()) {
+					for (int i = 0; i < cell.length; i++) {
+						cell[i] = (byte)remap[cell[i] & 0xFF];
+					}
+				}
+			}
+		}
+
+		this.providers = current;
+		this.providerIds = currentIds;
+	}
+
+	/**
+	 * @return The new number for each saved provider number, or null if the saved providers don't match the current ones one to one.
+	 */
+	private static int[] remapProviders(String[] savedIds, String[] currentIds) {
+		if (savedIds.length != currentIds.length) return null;
+
+		Map<String, Integer> currentIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < currentIds.length; i++) {
+			if (currentIndex.put(currentIds[i], i) != null) return null;
+		}
+
+		int[] remap = new int[savedIds.length + 1];
+		for (int i = 0; i < savedIds.length; i++) {
+			Integer index = currentIndex.get(savedIds[i]);
+			if (index == null) return null;
+			remap[i + 1] = index + 1;
+		}
+		return remap;
+	}
+
+	/**
+	 * @return The provider that generates a structure starting in the chunk in the strata, or null.
+	 */
+	public IStructureProvider getProvider(StructureStrata strata, int chunkX, int chunkZ) {
+		byte[] cell = getCell(chunkX >> CELL_SHIFT, chunkZ >> CELL_SHIFT);
+		int provider = cell[strata.ordinal() << CELL_SHIFT * 2 | (chunkZ & CELL_SIZE - 1) << CELL_SHIFT | (chunkX & CELL_SIZE - 1)] & 0xFF;
+		return provider == 0 ? null : providers[provider - 1];
+	}
+
+	private byte[] getCell(int cellX, int cellZ) {
+		Long key = ChunkCoordIntPair.chunkXZ2Int(cellX, cellZ);
+		byte[] cell = cells.get(key);
+		if (cell == null) {
+			cell = computeCell(cellX, cellZ);
+			cells.put(key, cell);
+			markDirty();
+		}
+		return cell;
+	}
+
+	/**
+	 * Asks the providers about each chunk of the cell. As before, the first provider of a strata to claim a chunk gets it.
+	 */
+	private byte[] computeCell(int cellX, int cellZ) {
+		StructureStrata[] stratas = StructureStrata.values();
+		byte[] cell = new byte[stratas.length * CELL_SIZE * CELL_SIZE];
+
+		for (int z = 0; z < CELL_SIZE; z++) {
+			for (int x = 0; x < CELL_SIZE; x++) {
+				int chunkX = cellX << CELL_SHIFT | x, chunkZ = cellZ << CELL_SHIFT | z;
+
+				for (int i = 0; i < providers.length; i++) {
+					int slot = providers[i].getStrata().ordinal() << CELL_SHIFT * 2 | z << CELL_SHIFT | x;
+					if (cell[slot] == 0 && providers[i].willProvideStructureFor(world, chunkX, chunkZ)) {
+						cell[slot] = (byte)(i + 1);
+					}
+				}
+			}
+		}
+		return cell;
+	}
+
+	@Override
+	public void readFromNBT(NBTTagCompound tag) {
+		cells.clear();
+
+		NBTTagList idList = tag.getTagList("providers");
+		providerIds = new String[idList.tagCount()];
+		for (int i = 0; i < idList.tagCount(); i++) {
+			providerIds[i] = ((NBTTagString)idList.tagAt(i)).data;
+		}
+
+		int cellLength = StructureStrata.values().length * CELL_SIZE * CELL_SIZE;
+		NBTTagList cellList = tag.getTagList("cells");
+		for (int i = 0; i < cellList.tagCount(); i++) {
+			NBTTagCompound cellTag = (NBTTagCompound)cellList.tagAt(i);
+			byte[] cell = cellTag.getByteArray("data");
+			if (cell.length != cellLength) continue;
+			cells.put(ChunkCoordIntPair.chunkXZ2Int(cellTag.getInteger("x"), cellTag.getInteger("z")), cell);
+		}
+	}
+
+	@Override
+	public void writeToNBT(NBTTagCompound tag) {
+		NBTTagList idList = new NBTTagList();
+		if (providerIds != null) {
+			for (String id : providerIds) {
+				idList.appendTag(new NBTTagString("", id));
+			}
+		}
+		tag.setTag("providers", idList);
+
+		NBTTagList cellList = new NBTTagList();
+		for (Entry<Long, byte[]> entry : cells.entrySet()) {
+			long key = entry.getKey();
+			NBTTagCompound cellTag = new NBTTagCompound();
+			cellTag.setInteger("x", (int)(key & 0xFFFFFFFFL));
+			cellTag.setInteger("z", (int)(key >>> 32));
+			cellTag.setByteArray("data", entry.getValue());
+			cellList.appendTag(cellTag);
+		}
+		tag.setTag("cells", cellList);
+	}
+}
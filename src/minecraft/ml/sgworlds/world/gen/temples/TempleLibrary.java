@@ -3,12 +3,14 @@ package ml.sgworlds.world.gen.temples;
 import java.util.Random;
 
 import ml.core.world.structure.StructureBuilder;
-import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.api.world.GateSiteMap;
+import ml.sgworlds.api.world.IScoredTempleGenerator;
+import ml.sgworlds.world.gen.TerrainHeights;
 import net.minecraft.block.Block;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
 
-public class TempleLibrary implements IGateTempleGenerator {
+public class TempleLibrary implements IScoredTempleGenerator {
 	
 	@Override
 	public void generateGateTemple(World world, ChunkPosition gateCoords, int gateRotation) {
@@ -145,12 +147,22 @@ public class TempleLibrary implements IGateTempleGenerator {
 		
 	}
 	
+	@Override
+	public float scoreSite(GateSiteMap map, int cellX, int cellZ) {
+		return map.scoreFlatLand(cellX, cellZ);
+	}
+
 	@Override
 	public ChunkPosition getGateCoords(World world, int gateRotation) {
 		Random rnd = new Random(world.getSeed());
 		int x = rnd.nextInt(500), z = rnd.nextInt(500);
 		
-		return new ChunkPosition(x, world.getHeightValue(x, z)-1, z);
+		return getGateCoords(world, gateRotation, x, z);
+	}
+
+	@Override
+	public ChunkPosition getGateCoords(World world, int gateRotation, int x, int z) {
+		return new ChunkPosition(x, TerrainHeights.getSurfaceHeight(world, x, z)-1, z);
 	}
 
 }
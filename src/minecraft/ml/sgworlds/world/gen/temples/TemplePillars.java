@@ -3,12 +3,14 @@ package ml.sgworlds.world.gen.temples;
 import java.util.Random;
 
 import ml.core.world.structure.StructureBuilder;
-import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.api.world.GateSiteMap;
+import ml.sgworlds.api.world.IScoredTempleGenerator;
+import ml.sgworlds.world.gen.TerrainHeights;
 import net.minecraft.block.Block;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
 
-public class TemplePillars implements IGateTempleGenerator {
+public class TemplePillars implements IScoredTempleGenerator {
 	
 	private int[] pillarX = {4, 6, 7, 7}, pillarZ = {1, 3, 6, 9};
 
@@ -49,12 +51,22 @@ public class TemplePillars implements IGateTempleGenerator {
 		th.setBlockAt(x, h, z, Block.blockNetherQuartz, 1);
 	}
 	
+	@Override
+	public float scoreSite(GateSiteMap map, int cellX, int cellZ) {
+		return map.scoreFlatLand(cellX, cellZ);
+	}
+
 	@Override
 	public ChunkPosition getGateCoords(World world, int gateRotation) {
 		Random rnd = new Random(world.getSeed());
 		int x = rnd.nextInt(1000)-500, z = rnd.nextInt(1000)-500;
 		
-		return new ChunkPosition(x, world.getHeightValue(x, z)-1, z);
+		return getGateCoords(world, gateRotation, x, z);
+	}
+
+	@Override
+	public ChunkPosition getGateCoords(World world, int gateRotation, int x, int z) {
+		return new ChunkPosition(x, TerrainHeights.getSurfaceHeight(world, x, z)-1, z);
 	}
 
 }
@@ -2,6 +2,7 @@ package ml.sgworlds.world.gen.temples;
 
 import ml.core.world.structure.StructureBuilder;
 import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.world.gen.TerrainHeights;
 import net.minecraft.block.Block;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
@@ -26,7 +27,7 @@ public class TemplePlain implements IGateTempleGenerator {
 		
 		for (int tz=-2; tz<=2; tz++) {
 			for (int tx=-2; tx<=2; tx++) {
-				gateY = Math.min(gateY, world.getHeightValue(x+tx, z+tz));
+				gateY = Math.min(gateY, TerrainHeights.getSurfaceHeight(world, x+tx, z+tz));
 			}
 		}
 		
@@ -5,13 +5,15 @@ import java.util.List;
 import java.util.Random;
 
 import ml.core.world.structure.StructureBuilder;
-import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.api.world.GateSiteMap;
+import ml.sgworlds.api.world.IScoredTempleGenerator;
+import ml.sgworlds.world.gen.TerrainHeights;
 import net.minecraft.block.Block;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.BiomeGenBase;
 
-public class TemplePyramid implements IGateTempleGenerator {
+public class TemplePyramid implements IScoredTempleGenerator {
 
 	public int plevels;
 	public int gateRoomHeight;
@@ -180,11 +182,22 @@ public class TemplePyramid implements IGateTempleGenerator {
 		}
 	}
 	
+	@Override
+	public float scoreSite(GateSiteMap map, int cellX, int cellZ) {
+		if (!validBiomes.contains(map.getBiome(cellX, cellZ)) || map.isUnderwater(cellX, cellZ)) return -1;
+		return map.getBiomeFit(cellX, cellZ, 1, validBiomes) * map.getFlatness(cellX, cellZ, 1, false);
+	}
+
 	@Override
 	public ChunkPosition getGateCoords(World world, int gateRotation) {
 		ChunkPosition biomePos = world.provider.worldChunkMgr.findBiomePosition(0, 0, 500, validBiomes, new Random(world.getSeed()));
 		if (biomePos == null) return null;
-		return new ChunkPosition(biomePos.x, world.getHeightValue(biomePos.x, biomePos.z), biomePos.z);
+		return getGateCoords(world, gateRotation, biomePos.x, biomePos.z);
+	}
+
+	@Override
+	public ChunkPosition getGateCoords(World world, int gateRotation, int x, int z) {
+		return new ChunkPosition(x, TerrainHeights.getSurfaceHeight(world, x, z), z);
 	}
 
 }
@@ -6,9 +6,11 @@ import net.minecraft.block.Block;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
 import ml.core.world.structure.StructureBuilder;
-import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.api.world.GateSiteMap;
+import ml.sgworlds.api.world.IScoredTempleGenerator;
+import ml.sgworlds.world.gen.TerrainHeights;
 
-public class TempleRuins implements IGateTempleGenerator {
+public class TempleRuins implements IScoredTempleGenerator {
 
 	private int[] blengs = {0,1,1,1,1,1,1,1,0}, flengs = {6,7,5,4,4,4,5,7,6};
 	
@@ -31,12 +33,22 @@ public class TempleRuins implements IGateTempleGenerator {
 		}
 	}
 
+	@Override
+	public float scoreSite(GateSiteMap map, int cellX, int cellZ) {
+		return map.scoreFlatLand(cellX, cellZ);
+	}
+
 	@Override
 	public ChunkPosition getGateCoords(World world, int gateRotation) {
 		Random rnd = new Random(world.getSeed());
 		int x = rnd.nextInt(1000)-500, z = rnd.nextInt(1000)-500;
 		
-		return new ChunkPosition(x, world.getHeightValue(x, z) - 1, z);
+		return getGateCoords(world, gateRotation, x, z);
+	}
+
+	@Override
+	public ChunkPosition getGateCoords(World world, int gateRotation, int x, int z) {
+		return new ChunkPosition(x, TerrainHeights.getSurfaceHeight(world, x, z) - 1, z);
 	}
 
 }
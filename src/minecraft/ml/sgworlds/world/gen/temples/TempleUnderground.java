@@ -3,6 +3,7 @@ package ml.sgworlds.world.gen.temples;
 import java.util.Random;
 
 import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.world.gen.TerrainHeights;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
 
@@ -16,7 +17,7 @@ public class TempleUnderground implements IGateTempleGenerator {
 	@Override
 	public ChunkPosition getGateCoords(World world, int gateRotation) {
 		Random rnd = new Random(world.getSeed());
-		int x = rnd.nextInt(500), z = rnd.nextInt(500), y = Math.max(1, world.getHeightValue(x, z) - 20);
+		int x = rnd.nextInt(500), z = rnd.nextInt(500), y = Math.max(1, TerrainHeights.getSurfaceHeight(world, x, z) - 20);
 		
 		return new ChunkPosition(x, rnd.nextInt(y) + 10, z);
 	}
@@ -5,14 +5,15 @@ import java.util.List;
 import java.util.Random;
 
 import ml.core.world.structure.StructureBuilder;
-import ml.sgworlds.api.world.IGateTempleGenerator;
+import ml.sgworlds.api.world.GateSiteMap;
+import ml.sgworlds.api.world.IScoredTempleGenerator;
+import ml.sgworlds.world.gen.TerrainHeights;
 import net.minecraft.block.Block;
-import net.minecraft.block.BlockFluid;
 import net.minecraft.world.ChunkPosition;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.BiomeGenBase;
 
-public class TempleUnderwater implements IGateTempleGenerator {
+public class TempleUnderwater implements IScoredTempleGenerator {
 
 	private int domeRadius = 9;
 	private int floor = 4;
@@ -83,20 +84,25 @@ public class TempleUnderwater implements IGateTempleGenerator {
 	
 	private int getOceanFloorHeight(World world, int x, int z) {
 		int seaLevel = 48;
-		for (int i=seaLevel; i>8; i--) {
-			int blid = world.getBlockId(x, i, z);
-			if (!(Block.blocksList[blid] instanceof BlockFluid)) {
-				return i;
-			}
-		}
-		return 8;
+		return Math.max(8, Math.min(seaLevel, TerrainHeights.getFloorHeight(world, x, z) - 1));
+	}
+
+	@Override
+	public float scoreSite(GateSiteMap map, int cellX, int cellZ) {
+		if (!validBiomes.contains(map.getBiome(cellX, cellZ)) || !map.isUnderwater(cellX, cellZ)) return -1;
+		return map.getBiomeFit(cellX, cellZ, 1, validBiomes) * map.getFlatness(cellX, cellZ, 1, true);
 	}
 
 	@Override
 	public ChunkPosition getGateCoords(World world, int gateRotation) {
 		ChunkPosition biomePos = world.provider.worldChunkMgr.findBiomePosition(0, 0, 500, validBiomes, new Random(world.getSeed()));
 		if (biomePos == null) return null;
-		return new ChunkPosition(biomePos.x, getOceanFloorHeight(world, biomePos.x, biomePos.z), biomePos.z);
+		return getGateCoords(world, gateRotation, biomePos.x, biomePos.z);
+	}
+
+	@Override
+	public ChunkPosition getGateCoords(World world, int gateRotation, int x, int z) {
+		return new ChunkPosition(x, getOceanFloorHeight(world, x, z), z);
 	}
 
 }
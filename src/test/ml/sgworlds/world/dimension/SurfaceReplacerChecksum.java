@@ -0,0 +1,189 @@
+package ml.sgworlds.world.dimension;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import ml.sgworlds.api.world.ChunkHeightmap;
+import net.minecraft.block.Block;
+import net.minecraft.world.biome.BiomeGenBase;
+import net.minecraft.world.gen.NoiseGeneratorOctaves;
+
+/**
+ * Checks that {@link SurfaceReplacer} gives the same blocks as the surface replacement SGChunkGenerator had before it
+ * skipped the air above the terrain, over a fixed seed and area.<br/>
+ * Run it with the Minecraft classes and the mod on the classpath, as <code>ant build test</code> does. It exits with status 1 if any chunk differs.
+ */
+public class SurfaceReplacerChecksum {
+
+	private static final long SEED = 8675309L;
+	private static final int RADIUS = 8;
+	private static final BiomeGenBase[] BIOMES = {BiomeGenBase.plains, BiomeGenBase.desert, BiomeGenBase.ocean, BiomeGenBase.frozenOcean,
+		BiomeGenBase.taiga, BiomeGenBase.beach, BiomeGenBase.extremeHills, BiomeGenBase.swampland, BiomeGenBase.icePlains};
+
+	public static void main(String[] args) {
+		boolean same = true;
+		for (int height : new int[] {256, 128}) {
+			same &= check(height);
+		}
+		if (!same) System.exit(1);
+	}
+
+	private static boolean check(int height) {
+		// Both sides get their own noise generator, built the way SGChunkGenerator builds it.
+		SurfaceReplacer replacer = new SurfaceReplacer(new NoiseGeneratorOctaves(new Random(SEED), 4));
+		NoiseGeneratorOctaves baselineNoise = new NoiseGeneratorOctaves(new Random(SEED), 4);
+
+		CRC32 baselineSum = new CRC32(), replacerSum = new CRC32();
+		int chunks = 0, differing = 0;
+
+		for (int chunkX = -RADIUS; chunkX < RADIUS; chunkX++) {
+			for (int chunkZ = -RADIUS; chunkZ < RADIUS; chunkZ++) {
+				Random terrainRand = new Random(SEED ^ ((long)chunkX * 341873128712L + (long)chunkZ * 132897987541L));
+				BiomeGenBase[] biomes = makeBiomes(terrainRand);
+
+				ChunkGenTask task = new ChunkGenTask(null, chunkX, chunkZ, biomes, null);
+				makeTerrain(terrainRand, task.blockIds, height);
+				short[] baseline = task.blockIds.clone();
+
+				task.heightmap = ChunkHeightmap.fromBlocks(task.blockIds);
+				replacer.replaceBlocksForBiome(task, height);
+				replaceBaseline(baselineNoise, new Random((long)chunkX * 341873128712L + (long)chunkZ * 132897987541L), chunkX, chunkZ, baseline, biomes, height);
+
+				update(baselineSum, baseline);
+				update(replacerSum, task.blockIds);
+				if (!Arrays.equals(baseline, task.blockIds)) differing++;
+				chunks++;
+			}
+		}
+
+		System.out.println(String.format("Height %d, %d chunks: baseline %08x, replacer %08x, %d chunks differ", height, chunks,
+				baselineSum.getValue(), replacerSum.getValue(), differing));
+		return differing == 0;
+	}
+
+	/**
+	 * Biomes in 4x4 block patches, so the surface rules change within a chunk.
+	 */
+	private static BiomeGenBase[] makeBiomes(Random rand) {
+		BiomeGenBase[] patches = new BiomeGenBase[16];
+		for (int i = 0; i < patches.length; i++) {
+			patches[i] = BIOMES[rand.nextInt(BIOMES.length)];
+		}
+
+		BiomeGenBase[] biomes = new BiomeGenBase[256];
+		for (int z = 0; z < 16; z++) {
+			for (int x = 0; x < 16; x++) {
+				biomes[x + z * 16] = patches[(z >> 2) * 4 + (x >> 2)];
+			}
+		}
+		return biomes;
+	}
+
+	/**
+	 * Stone with some overhangs and caves, water up to sea level, and the odd empty column.
+	 */
+	private static void makeTerrain(Random rand, short[] blockIds, int height) {
+		int base = 40 + rand.nextInt(50);
+		for (int col = 0; col < 256; col++) {
+			if (rand.nextInt(40) == 0) continue;
+
+			int top = Math.min(height - 1, base + rand.nextInt(12) - 6);
+			for (int y = 0; y < top; y++) {
+				blockIds[y<<8 | col] = (short)Block.stone.blockID;
+			}
+			for (int y = top; y < 63; y++) {
+				blockIds[y<<8 | col] = (short)Block.waterStill.blockID;
+			}
+			if (rand.nextInt(4) == 0) {
+				int cave = 5 + rand.nextInt(Math.max(1, top - 5));
+				for (int y = cave; y < Math.min(top, cave + 4); y++) {
+					blockIds[y<<8 | col] = 0;
+				}
+			}
+			if (rand.nextInt(10) == 0) {
+				for (int y = top + 3; y < Math.min(height, top + 6); y++) {
+					blockIds[y<<8 | col] = (short)Block.stone.blockID;
+				}
+			}
+		}
+	}
+
+	private static void update(CRC32 sum, short[] blockIds) {
+		for (short id : blockIds) {
+			sum.update(id >> 8);
+			sum.update(id);
+		}
+	}
+
+	/**
+	 * SGChunkGenerator's surface replacement as it was before it started at the terrain height.
+	 */
+	private static void replaceBaseline(NoiseGeneratorOctaves noiseGen4, Random rand, int chunkX, int chunkZ, short[] blockIds, BiomeGenBase[] biomes, int height) {
+		byte b0 = 63;
+		double d0 = 0.03125D;
+		double[] stoneNoise = noiseGen4.generateNoiseOctaves(null, chunkX * 16, chunkZ * 16, 0, 16, 16, 1, d0 * 2.0D, d0 * 2.0D, d0 * 2.0D);
+
+		for (int z = 0; z < 16; ++z) {
+			for (int x = 0; x < 16; ++x) {
+				BiomeGenBase biomegenbase = biomes[x + z * 16];
+				float temperature = biomegenbase.getFloatTemperature();
+
+				boolean isDesert = biomegenbase == BiomeGenBase.desert;
+				double depthBase = isDesert ? 10.0D : 3.0D;
+				int surfaceDepth = (int)(stoneNoise[z + x * 16] / 3.0D + depthBase + rand.nextDouble() * 0.25D);
+				int fillCounter = -1;
+				short topBlock = biomegenbase.topBlock;
+				short fillBlock = biomegenbase.fillerBlock;
+
+				for (int y = height-1; y >= 0; --y) {
+					int blIndex = y<<8 | z<<4 | x;
+
+					if (y <= 0 + rand.nextInt(5)) {
+						blockIds[blIndex] = (short)Block.bedrock.blockID;
+					} else {
+						short curBlock = blockIds[blIndex];
+
+						if (curBlock == 0) {
+							fillCounter = -1;
+						} else if (curBlock == Block.stone.blockID) {
+							if (fillCounter == -1) {
+								if (surfaceDepth <= 0) {
+									topBlock = 0;
+									fillBlock = (short)Block.stone.blockID;
+								} else if (y >= b0 - 4 && y <= b0 + 1) {
+									topBlock = biomegenbase.topBlock;
+									fillBlock = biomegenbase.fillerBlock;
+								}
+
+								if (y < b0 && topBlock == 0) {
+									if (temperature < 0.15F) {
+										topBlock = (short)Block.ice.blockID;
+									} else {
+										topBlock = (short)Block.waterStill.blockID;
+									}
+								}
+
+								fillCounter = surfaceDepth;
+
+								if (y >= b0 - 1) {
+									blockIds[blIndex] = topBlock;
+								} else {
+									blockIds[blIndex] = fillBlock;
+								}
+							} else if (fillCounter > 0) {
+								--fillCounter;
+								blockIds[blIndex] = fillBlock;
+
+								if (fillCounter == 0 && fillBlock == Block.sand.blockID) {
+									fillCounter = (isDesert ? 12 : 0) + rand.nextInt(4);
+									fillBlock = (short)Block.sandStone.blockID;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+}
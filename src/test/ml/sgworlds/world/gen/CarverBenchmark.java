@@ -0,0 +1,122 @@
+package ml.sgworlds.world.gen;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import net.minecraft.block.Block;
+import net.minecraft.world.EnumGameType;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.storage.WorldInfo;
+
+/**
+ * Times the cave and ravine carvers against the copy in {@link ml.sgworlds.world.gen.baseline} from before the water bitset and
+ * per-column height spans, and checks that both carve the same blocks.<br/>
+ * Run it with the Minecraft classes and the mod on the classpath, as <code>ant build test</code> does. The optional arguments are the seed
+ * and the number of timed rounds.
+ * Both sides get their own tunnel caches, warmed by the check, so the rounds time the carving rather than the tunnel walks.
+ */
+public class CarverBenchmark {
+
+	private static final int AREA = 16;
+	private static final int WARMUP_ROUNDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		World world = createWorld(seed);
+
+		int cacheSize = (AREA + 17) * (AREA + 17);
+		MapGenExtended[] current = {
+			new MapGenCavesSGW(new LRUCache<Long, MapGenExtended.Tunnel[]>(cacheSize)),
+			new MapGenRavineSGW(new LRUCache<Long, MapGenExtended.Tunnel[]>(cacheSize))};
+		ml.sgworlds.world.gen.baseline.MapGenExtended[] baseline = {
+			new ml.sgworlds.world.gen.baseline.MapGenCavesSGW(new LRUCache<Long, ml.sgworlds.world.gen.baseline.MapGenExtended.Tunnel[]>(cacheSize)),
+			new ml.sgworlds.world.gen.baseline.MapGenRavineSGW(new LRUCache<Long, ml.sgworlds.world.gen.baseline.MapGenExtended.Tunnel[]>(cacheSize))};
+
+		short[] ids = new short[16*16*256], baselineIds = new short[ids.length];
+		byte[] metas = new byte[ids.length], baselineMetas = new byte[ids.length];
+		int differing = 0;
+		for (int chunkX = 0; chunkX < AREA; chunkX++) {
+			for (int chunkZ = 0; chunkZ < AREA; chunkZ++) {
+				fillTerrain(chunkX, chunkZ, ids, metas);
+				fillTerrain(chunkX, chunkZ, baselineIds, baselineMetas);
+				carve(current, world, chunkX, chunkZ, ids, metas);
+				carveBaseline(baseline, world, chunkX, chunkZ, baselineIds, baselineMetas);
+				if (!Arrays.equals(ids, baselineIds) || !Arrays.equals(metas, baselineMetas)) differing++;
+			}
+		}
+		System.out.println(String.format("%d chunks, %d differ", AREA * AREA, differing));
+
+		long currentTime = 0, baselineTime = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+			long start = System.nanoTime();
+			for (int chunkX = 0; chunkX < AREA; chunkX++) {
+				for (int chunkZ = 0; chunkZ < AREA; chunkZ++) {
+					fillTerrain(chunkX, chunkZ, baselineIds, baselineMetas);
+					carveBaseline(baseline, world, chunkX, chunkZ, baselineIds, baselineMetas);
+				}
+			}
+			long middle = System.nanoTime();
+			for (int chunkX = 0; chunkX < AREA; chunkX++) {
+				for (int chunkZ = 0; chunkZ < AREA; chunkZ++) {
+					fillTerrain(chunkX, chunkZ, ids, metas);
+					carve(current, world, chunkX, chunkZ, ids, metas);
+				}
+			}
+			long end = System.nanoTime();
+
+			if (round >= WARMUP_ROUNDS) {
+				baselineTime += middle - start;
+				currentTime += end - middle;
+			}
+		}
+
+		long chunks = (long)rounds * AREA * AREA;
+		System.out.println(String.format("baseline %d us/chunk, current %d us/chunk (terrain fill included)", baselineTime / chunks / 1000, currentTime / chunks / 1000));
+		if (differing > 0) System.exit(1);
+	}
+
+	private static void carve(MapGenExtended[] carvers, World world, int chunkX, int chunkZ, short[] ids, byte[] metas) {
+		for (MapGenExtended carver : carvers) {
+			carver.generate(null, world, chunkX, chunkZ, null, ids, metas);
+		}
+	}
+
+	private static void carveBaseline(ml.sgworlds.world.gen.baseline.MapGenExtended[] carvers, World world, int chunkX, int chunkZ, short[] ids, byte[] metas) {
+		for (ml.sgworlds.world.gen.baseline.MapGenExtended carver : carvers) {
+			carver.generate(null, world, chunkX, chunkZ, null, ids, metas);
+		}
+	}
+
+	/**
+	 * Stone up to y 60 with bedrock at the bottom, and a shallow sea in every fourth chunk along x.
+	 */
+	private static void fillTerrain(int chunkX, int chunkZ, short[] ids, byte[] metas) {
+		Arrays.fill(ids, (short)0);
+		Arrays.fill(metas, (byte)0);
+		for (int i = 0; i < 256; i++) {
+			ids[i] = (short)Block.bedrock.blockID;
+		}
+		Arrays.fill(ids, 256, 60 << 8, (short)Block.stone.blockID);
+		if ((chunkX & 3) == 0) Arrays.fill(ids, 60 << 8, 63 << 8, (short)Block.waterStill.blockID);
+	}
+
+	/**
+	 * The carvers only ask the World for its seed, so this makes a bare WorldServer without running its constructor and gives it
+	 * a WorldInfo.
+	 */
+	private static World createWorld(long seed) throws Exception {
+		Field unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+		unsafeField.setAccessible(true);
+		Object unsafe = unsafeField.get(null);
+		World world = (World)unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, WorldServer.class);
+
+		Field worldInfo = World.class.getDeclaredField("worldInfo");
+		worldInfo.setAccessible(true);
+		worldInfo.set(world, new WorldInfo(new WorldSettings(seed, EnumGameType.SURVIVAL, true, false, WorldType.DEFAULT), "CarverBenchmark"));
+		return world;
+	}
+}
@@ -0,0 +1,142 @@
+package ml.sgworlds.world.gen.baseline;
+
+import java.util.List;
+import java.util.Random;
+
+import ml.sgworlds.world.gen.LRUCache;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.World;
+
+
+public class MapGenCavesSGW extends MapGenExtended {
+
+	public MapGenCavesSGW() {}
+
+	public MapGenCavesSGW(LRUCache<Long, Tunnel[]> tunnelCache) {
+		super(tunnelCache);
+	}
+
+	/**
+	 * Generates a larger initial cave node than usual. Called 25% of the time.
+	 */
+	protected Tunnel generateLargeCaveNode(long par1, double par6, double par8, double par10) {
+		return this.generateCaveNode(par1, par6, par8, par10, 1.0F + this.rand.nextFloat() * 6.0F, 0.0F, 0.0F, -1, -1, 0.5D);
+	}
+
+	/**
+	 * Generates a node in the current cave system recursion tree.
+	 */
+	protected Tunnel generateCaveNode(long seed, double altX, double altY, double altZ, float par12, float par13, float par14, int par15, int par16, double par17) {
+		float f3 = 0.0F;
+		float f4 = 0.0F;
+		Random random = new Random(seed);
+
+		if (par16 <= 0) {
+			int j1 = this.range * 16 - 16;
+			par16 = j1 - random.nextInt(j1 / 4);
+		}
+
+		boolean flag = false;
+
+		if (par15 == -1) {
+			par15 = par16 / 2;
+			flag = true;
+		}
+
+		Tunnel tunnel = new Tunnel(par12, flag, null);
+		int k1 = random.nextInt(par16 / 2) + par16 / 4;
+
+		for (boolean flag1 = random.nextInt(6) == 0; par15 < par16; ++par15) {
+			double d6 = 1.5D + (double)(MathHelper.sin((float)par15 * (float)Math.PI / (float)par16) * par12 * 1.0F);
+			double d7 = d6 * par17;
+			float f5 = MathHelper.cos(par14);
+			float f6 = MathHelper.sin(par14);
+			altX += (double)(MathHelper.cos(par13) * f5);
+			altY += (double)f6;
+			altZ += (double)(MathHelper.sin(par13) * f5);
+
+			if (flag1) {
+				par14 *= 0.92F;
+			} else {
+				par14 *= 0.7F;
+			}
+
+			par14 += f4 * 0.1F;
+			par13 += f3 * 0.1F;
+			f4 *= 0.9F;
+			f3 *= 0.75F;
+			f4 += (random.nextFloat() - random.nextFloat()) * random.nextFloat() * 2.0F;
+			f3 += (random.nextFloat() - random.nextFloat()) * random.nextFloat() * 4.0F;
+
+			if (!flag && par15 == k1 && par12 > 1.0F && par16 > 0) {
+				Tunnel left = this.generateCaveNode(random.nextLong(), altX, altY, altZ, random.nextFloat() * 0.5F + 0.5F, par13 - ((float)Math.PI / 2F), par14 / 3.0F, par15, par16, 1.0D);
+				Tunnel right = this.generateCaveNode(random.nextLong(), altX, altY, altZ, random.nextFloat() * 0.5F + 0.5F, par13 + ((float)Math.PI / 2F), par14 / 3.0F, par15, par16, 1.0D);
+				tunnel.setBranches(left, right);
+				return tunnel;
+			}
+
+			if (flag || random.nextInt(4) != 0) {
+				tunnel.addStep(altX, altY, altZ, d6, d7, par16 - par15);
+			}
+		}
+
+		return tunnel;
+	}
+
+	@Override
+	protected void carveSegment(Tunnel tunnel, int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas, double altX, double altY, double altZ, double d6, double d7, int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {
+		for (int lx = minX; lx < maxX; ++lx) {
+			double d12 = ((double)(lx + chunkX * 16) + 0.5D - altX) / d6;
+
+			for (int lz = minZ; lz < maxZ; ++lz) {
+				double d13 = ((double)(lz + chunkZ * 16) + 0.5D - altZ) / d6;
+				
+				if (d12 * d12 + d13 * d13 < 1.0D) {
+					for (int ly = maxY - 1; ly >= minY; --ly) {
+						double d14 = ((double)ly + 0.5D - altY) / d7;
+
+						if (d14 > -0.7D && d12 * d12 + d14 * d14 + d13 * d13 < 1.0D) {
+							clearBlock(blockIds, blockMetas, (ly<<8 | lz<<4 | lx)); // TODO Vanilla fills with lava if y<10
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recursively called by generate() (generate) and optionally by itself.
+	 */
+	@Override
+	protected void recursiveGenerate(World par1World, int par2, int par3, List<Tunnel> tunnels) {
+		int i1 = this.rand.nextInt(this.rand.nextInt(this.rand.nextInt(40) + 1) + 1);
+
+		if (this.rand.nextInt(15) != 0) {
+			i1 = 0;
+		}
+
+		for (int j1 = 0; j1 < i1; ++j1) {
+			double d0 = (double)(par2 * 16 + this.rand.nextInt(16));
+			double d1 = (double)this.rand.nextInt(this.rand.nextInt(120) + 8);
+			double d2 = (double)(par3 * 16 + this.rand.nextInt(16));
+			int k1 = 1;
+
+			if (this.rand.nextInt(4) == 0) {
+				tunnels.add(this.generateLargeCaveNode(this.rand.nextLong(), d0, d1, d2));
+				k1 += this.rand.nextInt(4);
+			}
+
+			for (int l1 = 0; l1 < k1; ++l1) {
+				float f = this.rand.nextFloat() * (float)Math.PI * 2.0F;
+				float f1 = (this.rand.nextFloat() - 0.5F) * 2.0F / 8.0F;
+				float f2 = this.rand.nextFloat() * 2.0F + this.rand.nextFloat();
+
+				if (this.rand.nextInt(10) == 0) {
+					f2 *= this.rand.nextFloat() * this.rand.nextFloat() * 3.0F + 1.0F;
+				}
+
+				tunnels.add(this.generateCaveNode(this.rand.nextLong(), d0, d1, d2, f2, f, f1, 0, 0, 1.0D));
+			}
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package ml.sgworlds.world.gen.baseline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ml.sgworlds.api.world.feature.types.ITerrainGenerator;
+import ml.sgworlds.world.gen.LRUCache;
+import net.minecraft.block.Block;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.IChunkProvider;
+
+/**
+ * Copy of the carvers before the water bitset and per-column height spans, for {@link ml.sgworlds.world.gen.CarverBenchmark}.<br/>
+ * Base of the cave and ravine carvers.<br/>
+ * The tunnels started in a source chunk don't depend on the chunk being carved, so {@link #recursiveGenerate} only records them
+ * as lists of spheroid segments. Each target chunk in range then replays the segments against its own blocks, which gives the same
+ * blocks as walking the tunnels per target did. With a tunnel cache the walk happens once per source chunk rather than once for each of
+ * the (2*range+1)^2 chunks around it.
+ */
+public class MapGenExtended {
+	private static final Tunnel[] NO_TUNNELS = new Tunnel[0];
+
+	protected int range = 8;
+	protected Random rand = new Random();
+	protected World worldObj;
+
+	protected ITerrainGenerator terrainGenerator;
+
+	/** Recorded tunnels by source chunk, shared by the carvers of one world. Null to record them again for each target chunk. */
+	private final LRUCache<Long, Tunnel[]> tunnelCache;
+
+	/**
+	 * One tunnel of a carver, as the segments it carves and the tunnels branching off its end.
+	 */
+	public static class Tunnel {
+		private static final int STEP_SIZE = 6;
+
+		final float width;
+		/** Large cave rooms stop after the first segment that carves a target chunk. */
+		final boolean large;
+		/** Squared horizontal scale of the walls per height, for ravines. */
+		final float[] wallScales;
+
+		/** x, y, z, horizontal radius, vertical radius and remaining steps of each segment. */
+		private double[] steps = new double[STEP_SIZE * 16];
+		private int stepCount;
+		private Tunnel[] branches;
+
+		/** Bounds of the carve checks of this tunnel and its branches. */
+		private double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		private double minZ = Double.POSITIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+
+		public Tunnel(float width, boolean large, float[] wallScales) {
+			this.width = width;
+			this.large = large;
+			this.wallScales = wallScales;
+		}
+
+		public void addStep(double x, double y, double z, double radiusH, double radiusV, int remaining) {
+			if (stepCount * STEP_SIZE == steps.length) {
+				double[] grown = new double[steps.length * 2];
+				System.arraycopy(steps, 0, grown, 0, steps.length);
+				steps = grown;
+			}
+
+			int i = stepCount++ * STEP_SIZE;
+			steps[i] = x;
+			steps[i+1] = y;
+			steps[i+2] = z;
+			steps[i+3] = radiusH;
+			steps[i+4] = radiusV;
+			steps[i+5] = remaining;
+			includeBounds(x - radiusH * 2.0D, x + radiusH * 2.0D, z - radiusH * 2.0D, z + radiusH * 2.0D);
+		}
+
+		public void setBranches(Tunnel... branches) {
+			this.branches = branches;
+			for (Tunnel branch : branches) {
+				includeBounds(branch.minX, branch.maxX, branch.minZ, branch.maxZ);
+			}
+		}
+
+		private void includeBounds(double minX, double maxX, double minZ, double maxZ) {
+			this.minX = Math.min(this.minX, minX);
+			this.maxX = Math.max(this.maxX, maxX);
+			this.minZ = Math.min(this.minZ, minZ);
+			this.maxZ = Math.max(this.maxZ, maxZ);
+		}
+
+		/**
+		 * Trims the segment array once the tunnel is complete.
+		 */
+		void compact() {
+			if (steps.length > stepCount * STEP_SIZE) {
+				double[] trimmed = new double[stepCount * STEP_SIZE];
+				System.arraycopy(steps, 0, trimmed, 0, trimmed.length);
+				steps = trimmed;
+			}
+			if (branches != null) {
+				for (Tunnel branch : branches) branch.compact();
+			}
+		}
+
+		/**
+		 * @return False if no segment of the tunnel or its branches can reach the chunk. Conservative by a block.
+		 */
+		boolean mayReach(double chunkCentX, double chunkCentZ) {
+			return maxX >= chunkCentX - 17.0D && minX <= chunkCentX + 17.0D && maxZ >= chunkCentZ - 17.0D && minZ <= chunkCentZ + 17.0D;
+		}
+	}
+
+	public MapGenExtended() {
+		this(null);
+	}
+
+	public MapGenExtended(LRUCache<Long, Tunnel[]> tunnelCache) {
+		this.tunnelCache = tunnelCache;
+	}
+
+	public void generate(IChunkProvider par1IChunkProvider, World par2World, int chunkX, int chunkZ, ITerrainGenerator terrainGenerator, short[] blockIds, byte[] blockMetas) {
+		this.terrainGenerator = terrainGenerator;
+
+		int k = this.range;
+		this.worldObj = par2World;
+		this.rand.setSeed(par2World.getSeed());
+		long l = this.rand.nextLong();
+		long i1 = this.rand.nextLong();
+
+		for (int altChunkX = chunkX - k; altChunkX <= chunkX + k; ++altChunkX) {
+			for (int altChunkZ = chunkZ - k; altChunkZ <= chunkZ + k; ++altChunkZ) {
+				Long key = tunnelCache != null ? ChunkCoordIntPair.chunkXZ2Int(altChunkX, altChunkZ) : null;
+				Tunnel[] tunnels = key != null ? tunnelCache.get(key) : null;
+
+				if (tunnels == null) {
+					long l1 = (long)altChunkX * l;
+					long i2 = (long)altChunkZ * i1;
+					this.rand.setSeed(l1 ^ i2 ^ par2World.getSeed());
+
+					List<Tunnel> recorded = new ArrayList<Tunnel>(0);
+					this.recursiveGenerate(par2World, altChunkX, altChunkZ, recorded);
+					tunnels = recorded.isEmpty() ? NO_TUNNELS : recorded.toArray(new Tunnel[recorded.size()]);
+					for (Tunnel tunnel : tunnels) tunnel.compact();
+					if (key != null) tunnelCache.put(key, tunnels);
+				}
+
+				for (Tunnel tunnel : tunnels) {
+					this.carveTunnel(tunnel, chunkX, chunkZ, blockIds, blockMetas);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records the tunnels started in a source chunk, in carving order. Called by generate() with rand seeded for the chunk.
+	 */
+	protected void recursiveGenerate(World par1World, int altChunkX, int altChunkZ, List<Tunnel> tunnels) {}
+
+	/**
+	 * Carves a recorded tunnel into the target chunk, stopping where walking it for that chunk would have.
+	 */
+	protected void carveTunnel(Tunnel tunnel, int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas) {
+		double chunkCentX = (double)(chunkX * 16 + 8);
+		double chunkCentZ = (double)(chunkZ * 16 + 8);
+		if (!tunnel.mayReach(chunkCentX, chunkCentZ)) return;
+
+		double d11 = (double)(tunnel.width + 2.0F + 16.0F);
+		double[] steps = tunnel.steps;
+
+		for (int i = 0; i < tunnel.stepCount * Tunnel.STEP_SIZE; i += Tunnel.STEP_SIZE) {
+			double altX = steps[i];
+			double altY = steps[i+1];
+			double altZ = steps[i+2];
+			double d6 = steps[i+3];
+			double d7 = steps[i+4];
+
+			// The rest of the tunnel can't reach the chunk any more.
+			double d8 = altX - chunkCentX;
+			double d9 = altZ - chunkCentZ;
+			double d10 = steps[i+5];
+
+			if (d8 * d8 + d9 * d9 - d10 * d10 > d11 * d11) {
+				return;
+			}
+
+			if (altX >= chunkCentX - 16.0D - d6 * 2.0D && altZ >= chunkCentZ - 16.0D - d6 * 2.0D && altX <= chunkCentX + 16.0D + d6 * 2.0D && altZ <= chunkCentZ + 16.0D + d6 * 2.0D) {
+				int minX = MathHelper.floor_double(altX - d6) - chunkX * 16 - 1;
+				int maxX = MathHelper.floor_double(altX + d6) - chunkX * 16 + 1;
+				int minY = MathHelper.floor_double(altY - d7) - 1;
+				int maxY = MathHelper.floor_double(altY + d7) + 1;
+				int minZ = MathHelper.floor_double(altZ - d6) - chunkZ * 16 - 1;
+				int maxZ = MathHelper.floor_double(altZ + d6) - chunkZ * 16 + 1;
+
+				if (minX < 0) {
+					minX = 0;
+				}
+
+				if (maxX > 16) {
+					maxX = 16;
+				}
+
+				if (minY < 1) {
+					minY = 1;
+				}
+
+				if (maxY > 120) {
+					maxY = 120;
+				}
+
+				if (minZ < 0) {
+					minZ = 0;
+				}
+
+				if (maxZ > 16) {
+					maxZ = 16;
+				}
+
+				boolean oceanBlockFound = false;
+				for (int lx = minX; !oceanBlockFound && lx < maxX; ++lx) {
+					for (int lz = minZ; !oceanBlockFound && lz < maxZ; ++lz) {
+						for (int ly = maxY + 1; !oceanBlockFound && ly >= minY - 1; --ly) {
+							int blockIndex = ly<<8 | lz<<4 | lx;
+
+							if (ly >= 0 && ly < 128) {
+								oceanBlockFound = blockIds[blockIndex] == Block.waterMoving.blockID || blockIds[blockIndex] == Block.waterStill.blockID;
+
+								if (ly != minY - 1 && lx != minX && lx != maxX - 1 && lz != minZ && lz != maxZ - 1) {
+									ly = minY;
+								}
+							}
+						}
+					}
+				}
+
+				if (!oceanBlockFound) {
+					this.carveSegment(tunnel, chunkX, chunkZ, blockIds, blockMetas, altX, altY, altZ, d6, d7, minX, maxX, minY, maxY, minZ, maxZ);
+
+					if (tunnel.large) {
+						return;
+					}
+				}
+			}
+		}
+
+		if (tunnel.branches != null) {
+			for (Tunnel branch : tunnel.branches) {
+				this.carveTunnel(branch, chunkX, chunkZ, blockIds, blockMetas);
+			}
+		}
+	}
+
+	/**
+	 * Clears the blocks of one segment within the given chunk local bounds.
+	 */
+	protected void carveSegment(Tunnel tunnel, int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas, double altX, double altY, double altZ, double d6, double d7, int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {}
+
+	protected void placeFillBlock(short[] blocksIds, byte[] blockMetas, int index) {
+		short blkId = blocksIds[index];
+		Block blk = Block.blocksList[blkId];
+
+		if (blk == Block.bedrock) return;
+
+		int x = index & 15;
+		int y = index >> 8;
+		int z = index >> 4 & 15;
+
+		if (terrainGenerator != null) {
+			terrainGenerator.setFillerBlock(x, y, z, index, blocksIds, blockMetas);
+		} else {
+			blocksIds[index] = 1;
+			blockMetas[index] = 0;
+		}
+	}
+
+	protected void clearBlock(short[] blocksIds, byte[] blockMetas, int index) {
+		short blkId = blocksIds[index];
+		Block blk = Block.blocksList[blkId];
+
+		if (blk == Block.bedrock) return;
+
+		blocksIds[index] = 0;
+		blockMetas[index] = 0;
+	}
+}
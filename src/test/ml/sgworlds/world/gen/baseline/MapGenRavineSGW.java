@@ -0,0 +1,116 @@
+package ml.sgworlds.world.gen.baseline;
+
+import java.util.List;
+import java.util.Random;
+
+import ml.sgworlds.world.gen.LRUCache;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.World;
+
+public class MapGenRavineSGW extends MapGenExtended {
+
+	public MapGenRavineSGW() {}
+
+	public MapGenRavineSGW(LRUCache<Long, Tunnel[]> tunnelCache) {
+		super(tunnelCache);
+	}
+
+	protected Tunnel generateRavine(long seed, double altX, double altY, double altZ, float par12, float par13, float par14, int par15, int par16, double par17) {
+		Random random = new Random(seed);
+		float f3 = 0.0F;
+		float f4 = 0.0F;
+
+		if (par16 <= 0) {
+			int j1 = this.range * 16 - 16;
+			par16 = j1 - random.nextInt(j1 / 4);
+		}
+
+		boolean flag = false;
+
+		if (par15 == -1) {
+			par15 = par16 / 2;
+			flag = true;
+		}
+
+		float f5 = 1.0F;
+		float[] wallScales = new float[128];
+
+		for (int k1 = 0; k1 < 128; ++k1) {
+			if (k1 == 0 || random.nextInt(3) == 0) {
+				f5 = 1.0F + random.nextFloat() * random.nextFloat() * 1.0F;
+			}
+
+			wallScales[k1] = f5 * f5;
+		}
+
+		Tunnel tunnel = new Tunnel(par12, flag, wallScales);
+
+		for (; par15 < par16; ++par15) {
+			double d6 = 1.5D + (double)(MathHelper.sin((float)par15 * (float)Math.PI / (float)par16) * par12 * 1.0F);
+			double d7 = d6 * par17;
+			d6 *= (double)random.nextFloat() * 0.25D + 0.75D;
+			d7 *= (double)random.nextFloat() * 0.25D + 0.75D;
+			float f6 = MathHelper.cos(par14);
+			float f7 = MathHelper.sin(par14);
+			altX += (double)(MathHelper.cos(par13) * f6);
+			altY += (double)f7;
+			altZ += (double)(MathHelper.sin(par13) * f6);
+			par14 *= 0.7F;
+			par14 += f4 * 0.05F;
+			par13 += f3 * 0.05F;
+			f4 *= 0.8F;
+			f3 *= 0.5F;
+			f4 += (random.nextFloat() - random.nextFloat()) * random.nextFloat() * 2.0F;
+			f3 += (random.nextFloat() - random.nextFloat()) * random.nextFloat() * 4.0F;
+
+			if (flag || random.nextInt(4) != 0) {
+				tunnel.addStep(altX, altY, altZ, d6, d7, par16 - par15);
+			}
+		}
+
+		return tunnel;
+	}
+
+	@Override
+	protected void carveSegment(Tunnel tunnel, int chunkX, int chunkZ, short[] blockIds, byte[] blockMetas, double altX, double altY, double altZ, double d6, double d7, int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {
+		for (int lx = minX; lx < maxX; ++lx) {
+			double d12 = ((double)(lx + chunkX * 16) + 0.5D - altX) / d6;
+
+			for (int lz = minZ; lz < maxZ; ++lz) {
+				double d13 = ((double)(lz + chunkZ * 16) + 0.5D - altZ) / d6;
+				
+				if (d12 * d12 + d13 * d13 < 1.0D) {
+					for (int ly = maxY - 1; ly >= minY; --ly) {
+						double d14 = ((double)ly + 0.5D - altY) / d7;
+
+						int blockIndex = ly<<8 | lz<<4 | lx;
+						if ((d12 * d12 + d13 * d13) * (double)tunnel.wallScales[ly] + d14 * d14 / 6.0D < 1.0D) {
+							clearBlock(blockIds, blockMetas, blockIndex);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recursively called by generate() (generate) and optionally by itself.
+	 */
+	@Override
+	protected void recursiveGenerate(World par1World, int altChunkX, int altChunkZ, List<Tunnel> tunnels) {
+		if (this.rand.nextInt(50) == 0) {
+			double altX = (double)(altChunkX * 16 + this.rand.nextInt(16));
+			double altY = (double)(this.rand.nextInt(this.rand.nextInt(40) + 8) + 20);
+			double altZ = (double)(altChunkZ * 16 + this.rand.nextInt(16));
+			byte b0 = 1;
+
+			for (int i1 = 0; i1 < b0; ++i1) {
+				float f = this.rand.nextFloat() * (float)Math.PI * 2.0F;
+				float f1 = (this.rand.nextFloat() - 0.5F) * 2.0F / 8.0F;
+				float f2 = (this.rand.nextFloat() * 2.0F + this.rand.nextFloat()) * 2.0F;
+				tunnels.add(this.generateRavine(this.rand.nextLong(), altX, altY, altZ, f2, f, f1, 0, 0, 3.0D));
+			}
+		}
+	}
+
+}